@@ -0,0 +1,169 @@
+package io.github.tuannh982.phantom;
+
+import io.github.tuannh982.phantom.commons.concurrent.RLock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/*
+contention benchmark of RLock against the previous spin-yield lock, 1-64 threads
+- write: single lock (DB write lock), critical section appends a small record into a buffer
+- lookup: 16 striped locks (off-heap index segments), critical section is a hash map lookup
+ */
+@SuppressWarnings("all")
+public class LockBenchmark {
+    interface Lock {
+        boolean lock();
+        void release(boolean lockResult);
+    }
+
+    // previous RLock implementation
+    static class SpinYieldLock implements Lock {
+        private static final AtomicLongFieldUpdater<SpinYieldLock> UPDATER = AtomicLongFieldUpdater.newUpdater(SpinYieldLock.class, "holder");
+
+        private volatile long holder = 0;
+
+        public boolean lock() {
+            long threadId = Thread.currentThread().getId();
+            if (threadId == UPDATER.get(this)) {
+                return false;
+            }
+            while (true) {
+                if (UPDATER.compareAndSet(this, 0, threadId)) {
+                    return true;
+                }
+                Thread.yield();
+            }
+        }
+
+        public void release(boolean lockResult) {
+            if (lockResult) {
+                long threadId = Thread.currentThread().getId();
+                if (!UPDATER.compareAndSet(this, threadId, 0)) {
+                    throw new AssertionError("could not execute compareAndSet");
+                }
+            }
+        }
+    }
+
+    static class AdaptiveLock implements Lock {
+        private final RLock lock = new RLock();
+
+        public boolean lock() {
+            return lock.lock();
+        }
+
+        public void release(boolean lockResult) {
+            lock.release(lockResult);
+        }
+    }
+
+    static final int DURATION_MS = 2000;
+    static final int STRIPES = 16;
+    static final int[] THREADS = new int[] {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(String.format("%-8s %-10s %8s %16s %16s", "bench", "lock", "threads", "ops/s", "cpu us/op"));
+        for (int threads : THREADS) {
+            for (String name : new String[] {"spinyield", "adaptive"}) {
+                report("write", name, threads, runWrite(name, threads));
+                report("lookup", name, threads, runLookup(name, threads));
+            }
+        }
+    }
+
+    static Lock newLock(String name) {
+        return name.equals("spinyield") ? new SpinYieldLock() : new AdaptiveLock();
+    }
+
+    static void report(String bench, String name, int threads, long[] result) {
+        double ops = (double) result[0] * 1000 / DURATION_MS;
+        double cpuPerOpMicros = result[0] == 0 ? 0 : (double) result[1] / 1000 / result[0];
+        System.out.println(String.format("%-8s %-10s %8d %16.1f %16.4f", bench, name, threads, ops, cpuPerOpMicros));
+    }
+
+    static long[] runWrite(String name, int threads) throws Exception {
+        Lock lock = newLock(name);
+        ByteBuffer log = ByteBuffer.allocateDirect(1 << 20);
+        byte[] record = new byte[100];
+        return run(threads, () -> {
+            boolean rlock = lock.lock();
+            try {
+                if (log.remaining() < record.length) {
+                    log.clear();
+                }
+                log.put(record);
+            } finally {
+                lock.release(rlock);
+            }
+        });
+    }
+
+    static long[] runLookup(String name, int threads) throws Exception {
+        Lock[] locks = new Lock[STRIPES];
+        List<Map<Integer, Integer>> maps = new ArrayList<>(STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = newLock(name);
+            Map<Integer, Integer> map = new HashMap<>();
+            for (int k = 0; k < 1024; k++) {
+                map.put(k, k);
+            }
+            maps.add(map);
+        }
+        return run(threads, () -> {
+            int key = ThreadLocalRandom.current().nextInt(STRIPES * 1024);
+            int stripe = key % STRIPES;
+            boolean rlock = locks[stripe].lock();
+            try {
+                maps.get(stripe).get(key / STRIPES);
+            } finally {
+                locks[stripe].release(rlock);
+            }
+        });
+    }
+
+    // return {total ops, total thread cpu time (ns)}
+    static long[] run(int threads, Runnable op) throws Exception {
+        long[] ops = new long[threads];
+        long[] cpu = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long deadline = System.currentTimeMillis() + DURATION_MS;
+        for (int t = 0; t < threads; t++) {
+            final int tt = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long cpuStart = java.lang.management.ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+                long count = 0;
+                while ((count & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                    op.run();
+                    count++;
+                }
+                ops[tt] = count;
+                cpu[tt] = java.lang.management.ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - cpuStart;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long totalOps = 0;
+        long totalCpu = 0;
+        for (int t = 0; t < threads; t++) {
+            totalOps += ops[t];
+            totalCpu += cpu[t];
+        }
+        return new long[] {totalOps, totalCpu};
+    }
+}
@@ -0,0 +1,123 @@
+package io.github.tuannh982.phantom;
+
+import io.github.tuannh982.phantom.db.index.IndexMetadata;
+import io.github.tuannh982.phantom.db.index.offheap.IndexMetadataSerializer;
+import io.github.tuannh982.phantom.offheap.hashtable.HashTable;
+import io.github.tuannh982.phantom.offheap.hashtable.HashTableOptions;
+import io.github.tuannh982.phantom.offheap.hashtable.KeyBuffer;
+import io.github.tuannh982.phantom.offheap.hashtable.OffHeapHashTable;
+import io.github.tuannh982.phantom.offheap.hashtable.openaddressing.OpenAddressingHashTable;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Murmur3;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+read scaling benchmark of off-heap hash tables (optimistic segment reads), 1-64 reader threads
+- chained: OffHeapHashTable
+- open: OpenAddressingHashTable
+- read: readers only
+- read+write: readers, plus one thread updating random keys
+ */
+@SuppressWarnings("all")
+public class ReadScalingBenchmark {
+    static final int DURATION_MS = 2000;
+    static final int SEGMENTS = 16;
+    static final int KEYS = 1 << 16;
+    static final int[] THREADS = new int[] {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        Hasher hasher = new Murmur3();
+        KeyBuffer[] keys = new KeyBuffer[KEYS];
+        for (int k = 0; k < KEYS; k++) {
+            keys[k] = new KeyBuffer(ByteBuffer.allocate(8).putLong(k).array(), hasher);
+        }
+        HashTableOptions<IndexMetadata> options = HashTableOptions.<IndexMetadata>builder()
+                .maxKeySize(8)
+                .fixedValueSize(IndexMetadata.METADATA_SIZE)
+                .memoryChunkSize(4 * 1024 * 1024)
+                .segmentCount(SEGMENTS)
+                .entryTableSizePerSegment(KEYS / SEGMENTS)
+                .valueSerializer(new IndexMetadataSerializer())
+                .hasher(hasher)
+                .build();
+        System.out.println(String.format("%-8s %-12s %8s %16s %16s", "table", "bench", "threads", "ops/s", "cpu us/op"));
+        bench("chained", new OffHeapHashTable<>(options), keys);
+        bench("open", new OpenAddressingHashTable<>(options), keys);
+    }
+
+    static void bench(String name, HashTable<IndexMetadata> table, KeyBuffer[] keys) throws Exception {
+        for (int k = 0; k < KEYS; k++) {
+            table.put(keys[k], new IndexMetadata(0, k, 100, k));
+        }
+        for (int threads : THREADS) {
+            report(name, "read", threads, run(threads, table, keys, false));
+            report(name, "read+write", threads, run(threads, table, keys, true));
+        }
+        table.close();
+    }
+
+    static void report(String table, String bench, int threads, long[] result) {
+        double ops = (double) result[0] * 1000 / DURATION_MS;
+        double cpuPerOpMicros = result[0] == 0 ? 0 : (double) result[1] / 1000 / result[0];
+        System.out.println(String.format("%-8s %-12s %8d %16.1f %16.4f", table, bench, threads, ops, cpuPerOpMicros));
+    }
+
+    // return {total read ops, total reader thread cpu time (ns)}
+    static long[] run(int threads, HashTable<IndexMetadata> table, KeyBuffer[] keys, boolean withWriter) throws Exception {
+        long[] ops = new long[threads];
+        long[] cpu = new long[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long deadline = System.currentTimeMillis() + DURATION_MS;
+        for (int t = 0; t < threads; t++) {
+            final int tt = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long cpuStart = java.lang.management.ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+                long count = 0;
+                while ((count & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                    int k = ThreadLocalRandom.current().nextInt(KEYS);
+                    if (table.get(keys[k]).getValueOffset() != k) {
+                        throw new AssertionError("wrong value of key " + k);
+                    }
+                    count++;
+                }
+                ops[tt] = count;
+                cpu[tt] = java.lang.management.ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - cpuStart;
+            });
+            workers[t].start();
+        }
+        Thread writer = null;
+        if (withWriter) {
+            writer = new Thread(() -> {
+                long sequenceNumber = KEYS;
+                while (System.currentTimeMillis() < deadline) {
+                    int k = ThreadLocalRandom.current().nextInt(KEYS);
+                    table.put(keys[k], new IndexMetadata(0, k, 100, sequenceNumber++));
+                }
+            });
+            writer.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (writer != null) {
+            writer.join();
+        }
+        long totalOps = 0;
+        long totalCpu = 0;
+        for (int t = 0; t < threads; t++) {
+            totalOps += ops[t];
+            totalCpu += cpu[t];
+        }
+        return new long[] {totalOps, totalCpu};
+    }
+}
@@ -2,34 +2,85 @@ package io.github.tuannh982.phantom.commons.concurrent;
 
 import lombok.NoArgsConstructor;
 
-import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
-// simple version of re-entrance lock
+/*
+simple version of re-entrance lock.
+adaptive spinning first (spin budget grows when spinning acquired the lock, shrinks when it had to park), then park
+in a FIFO queue. spinning threads never barge in front of parked threads, the lock is handed to the queue head instead.
+Thread.onSpinWait is not available on java 8, spinning threads yield every YIELD_INTERVAL spins instead, so the lock
+holder (or another thread) could run if cores are oversubscribed
+ */
 @NoArgsConstructor
 public class RLock {
-    private static final AtomicLongFieldUpdater<RLock> UPDATER = AtomicLongFieldUpdater.newUpdater(RLock.class, "holder");
+    private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+    private static final int MIN_SPINS = Math.min(MAX_SPINS, 1 << 4);
+    private static final int YIELD_INTERVAL = 1 << 6; // power of 2
 
-    private volatile long holder = 0;
+    private final Sync sync = new Sync();
+    private volatile int spins = MIN_SPINS; // racy update is fine, it's just a hint
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean tryAcquire(int ignored) {
+            if (getState() == 0 && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int ignored) {
+            if (getExclusiveOwnerThread() != Thread.currentThread()) {
+                throw new AssertionError("lock not held by current thread");
+            }
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
+        }
+    }
 
     public boolean lock() {
-        long threadId = Thread.currentThread().getId();
-        if (threadId == UPDATER.get(this)) {
+        if (sync.isHeldExclusively()) {
             return false; // already locked on current thread
         }
-        while (true) {
-            if (UPDATER.compareAndSet(this, 0, threadId)) {
+        int spinBudget = spins;
+        for (int i = 0; i < spinBudget; i++) {
+            if (sync.hasQueuedThreads()) {
+                break; // don't barge, queued threads go first
+            }
+            if (!sync.isLocked() && sync.tryAcquire(1)) {
+                if (i > 0 && spinBudget < MAX_SPINS) {
+                    spins = spinBudget << 1;
+                }
                 return true;
             }
-            Thread.yield();
+            if ((i & (YIELD_INTERVAL - 1)) == YIELD_INTERVAL - 1) {
+                Thread.yield();
+            }
         }
+        sync.acquire(1);
+        if (spinBudget > MIN_SPINS) {
+            spins = spinBudget >> 1;
+        }
+        return true;
     }
 
     public void release(boolean lockResult) { // result of latest lock() command
         if (lockResult) {
-            long threadId = Thread.currentThread().getId();
-            if (!UPDATER.compareAndSet(this, threadId, 0)) {
-                throw new AssertionError("could not execute compareAndSet");
-            }
+            sync.release(1);
         }
     }
 }
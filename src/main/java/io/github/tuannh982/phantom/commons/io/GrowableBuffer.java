@@ -0,0 +1,40 @@
+package io.github.tuannh982.phantom.commons.io;
+
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * reusable direct buffer, grows on demand, not thread-safe
+ */
+public class GrowableBuffer implements Closeable {
+    private ByteBuffer buffer;
+
+    public GrowableBuffer(int initialCapacity) {
+        buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // make sure at least size bytes remaining, written content [0, position) is kept
+    public ByteBuffer ensureRemaining(int size) {
+        if (buffer.remaining() < size) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            UnsafeWrapper.unmap(buffer);
+            buffer = newBuffer;
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        UnsafeWrapper.unmap(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.tuannh982.phantom.commons.io;
+
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * reference counted mapped buffer, unmapped when the owner closed it and all readers released it
+ */
+public class SharedMappedBuffer implements Closeable {
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger(1); // owner reference, released by close()
+    private boolean closed = false;
+
+    public SharedMappedBuffer(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    // return false if the buffer was already unmapped
+    public boolean retain() {
+        int current;
+        do {
+            current = refCount.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!refCount.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            UnsafeWrapper.unmap(buffer);
+        }
+    }
+
+    // must be retained
+    public void read(int offset, byte[] dst) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(dst);
+    }
+
+    // must be retained
+    public void read(int offset, int len, ByteBuffer dst) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + len);
+        dst.put(view);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            release();
+        }
+    }
+}
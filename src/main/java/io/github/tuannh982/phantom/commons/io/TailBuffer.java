@@ -0,0 +1,115 @@
+package io.github.tuannh982.phantom.commons.io;
+
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * off-heap copy of the most recently appended region [start, end) of a file, reads of just written data skip the file.
+ * single appender, concurrent readers. appends only write beyond end, so they don't need the lock,
+ * the lock is only taken exclusively when the region is restarted (buffer is full) or released
+ */
+public class TailBuffer implements Closeable {
+    private final int capacity;
+    private final StampedLock lock = new StampedLock();
+    private long address; // guarded by lock, 0 after closed
+    private volatile int start;
+    private volatile int end;
+
+    public TailBuffer(int capacity, int fileOffset) {
+        this.capacity = capacity;
+        this.address = UnsafeWrapper.malloc(capacity);
+        this.start = fileOffset;
+        this.end = fileOffset;
+    }
+
+    // src [position, limit) was written at fileOffset, src position is not changed
+    public void append(int fileOffset, ByteBuffer src) {
+        int len = src.remaining();
+        if (fileOffset != end || fileOffset + len - start > capacity) {
+            restart(len > capacity ? fileOffset + len : fileOffset);
+            if (len > capacity) {
+                return;
+            }
+        }
+        if (address == 0) { // append and close are serialized by the caller (write lock)
+            return;
+        }
+        long to = address + (fileOffset - start);
+        if (src.isDirect()) {
+            UnsafeWrapper.memcpy(UnsafeWrapper.address(src), src.position(), to, 0, len);
+        } else {
+            UnsafeWrapper.memcpy(src.array(), (long) src.arrayOffset() + src.position(), to, 0, len);
+        }
+        end = fileOffset + len; // publish
+    }
+
+    private void restart(int fileOffset) {
+        long stamp = lock.writeLock();
+        try {
+            start = fileOffset;
+            end = fileOffset;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean contains(int offset, int len) {
+        return offset >= start && offset + len <= end;
+    }
+
+    // return null if [offset, offset + len) is not in buffer
+    public byte[] read(int offset, int len) {
+        if (!contains(offset, len)) { // fast path, most reads are of older data
+            return null;
+        }
+        long stamp = lock.readLock();
+        try {
+            if (address == 0 || !contains(offset, len)) {
+                return null;
+            }
+            byte[] value = new byte[len];
+            UnsafeWrapper.memcpy(address, offset - start, value, 0, len);
+            return value;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // read into dst [position, position + len), dst position is advanced by len
+    public boolean read(int offset, int len, ByteBuffer dst) {
+        if (!contains(offset, len)) {
+            return false;
+        }
+        long stamp = lock.readLock();
+        try {
+            if (address == 0 || !contains(offset, len)) {
+                return false;
+            }
+            if (dst.isDirect()) {
+                UnsafeWrapper.memcpy(address, offset - start, UnsafeWrapper.address(dst), dst.position(), len);
+            } else {
+                UnsafeWrapper.memcpy(address, offset - start, dst.array(), (long) dst.arrayOffset() + dst.position(), len);
+            }
+            dst.position(dst.position() + len);
+            return true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            UnsafeWrapper.free(address);
+            address = 0;
+            start = 0;
+            end = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -62,6 +63,35 @@ public class UnsafeWrapper {
         }
     }
 
+    public static long address(ByteBuffer directBuffer) {
+        return UNSAFE.getLong(directBuffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET);
+    }
+
+    // release memory of direct/mapped buffer immediately instead of waiting for GC, buffer must not be used after
+    @SuppressWarnings("java:S3011")
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            Method invokeCleaner = UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class); // java 9+
+            invokeCleaner.invoke(UNSAFE, buffer);
+        } catch (NoSuchMethodException e) { // java 8
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     // memory
 
     public static long malloc(long size) {
@@ -91,6 +121,10 @@ public class UnsafeWrapper {
         UNSAFE.copyMemory(arr, sun.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET + offset, null, to + toOffset, len);
     }
 
+    public static void memcpy(long from, long fromOffset, byte[] arr, long offset, long len) {
+        UNSAFE.copyMemory(null, from + fromOffset, arr, sun.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET + offset, len);
+    }
+
     // manipulate
 
     public static void putLong(long address, long offset, long value) {
@@ -1,18 +1,48 @@
 package io.github.tuannh982.phantom.db;
 
 import io.github.tuannh982.phantom.db.command.GetResult;
+import io.github.tuannh982.phantom.db.command.MetadataResult;
 import io.github.tuannh982.phantom.db.command.ModifyResult;
+import io.github.tuannh982.phantom.db.command.WriteBatch;
 import io.github.tuannh982.phantom.db.command.WriteOps;
 import io.github.tuannh982.phantom.db.policy.WritePolicy;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface DB extends Closeable {
     GetResult get(byte[] key) throws IOException;
+    // one result per key, in order. values in the same data file are read together
+    List<GetResult> multiGet(List<byte[]> keys) throws IOException;
+    // index only queries, no disk read
+    boolean exists(byte[] key) throws IOException;
+    int valueSize(byte[] key) throws IOException; // -1 if not found
+    MetadataResult getMetadata(byte[] key) throws IOException; // sequence number & value size
     ModifyResult put(byte[] key, byte[] value) throws IOException;
     ModifyResult putIfAbsent(byte[] key, byte[] value) throws IOException;
     ModifyResult replace(byte[] key, byte[] value) throws IOException;
     ModifyResult delete(byte[] key) throws IOException;
     ModifyResult write(WriteOps ops, WritePolicy policy, byte[] key, byte[] value) throws IOException;
+    List<ModifyResult> write(WriteBatch batch) throws IOException;
+    // async get, disk read is executed on read thread pool (numberOfReadThread > 0), or synchronously
+    CompletableFuture<GetResult> getAsync(byte[] key);
+    // same as getAsync(key), but the future is completed on completionExecutor
+    CompletableFuture<GetResult> getAsync(byte[] key, Executor completionExecutor);
+    // async writes, completed by appender thread (or synchronously if asyncWriteQueueSize = 0)
+    CompletableFuture<ModifyResult> putAsync(byte[] key, byte[] value);
+    CompletableFuture<ModifyResult> deleteAsync(byte[] key);
+    CompletableFuture<ModifyResult> writeAsync(WriteOps ops, WritePolicy policy, byte[] key, byte[] value);
+    // ByteBuffer (heap or direct) variants, use [position, limit) of key and value without changing their positions
+    // get reads value into the value buffer (advancing its position) and returns result with null value
+    GetResult get(ByteBuffer key, ByteBuffer value) throws IOException;
+    ModifyResult put(ByteBuffer key, ByteBuffer value) throws IOException;
+    ModifyResult putIfAbsent(ByteBuffer key, ByteBuffer value) throws IOException;
+    ModifyResult replace(ByteBuffer key, ByteBuffer value) throws IOException;
+    ModifyResult delete(ByteBuffer key) throws IOException;
+    // value buffer is referenced (not copied) until the future completes, it must not be modified or released before that
+    CompletableFuture<ModifyResult> putAsync(ByteBuffer key, ByteBuffer value);
 }
@@ -0,0 +1,15 @@
+package io.github.tuannh982.phantom.db.command;
+
+import lombok.Getter;
+
+@Getter
+public class MetadataResult extends Result {
+    public static final MetadataResult NULL = new MetadataResult(null, null);
+
+    private final Integer valueSize;
+
+    public MetadataResult(Integer valueSize, Long sequenceNumber) {
+        super(sequenceNumber);
+        this.valueSize = valueSize;
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.tuannh982.phantom.db.command;
+
+import io.github.tuannh982.phantom.db.policy.WritePolicy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ordered list of writes to be committed atomically by DB.write(WriteBatch),
+ * result of each write is returned at the same position
+ */
+@Getter
+public class WriteBatch {
+    private static final WritePolicy PUT_POLICY = policy(WritePolicy.RecordExistsAction.NONE);
+    private static final WritePolicy PUT_IF_ABSENT_POLICY = policy(WritePolicy.RecordExistsAction.CREATE_ONLY);
+    private static final WritePolicy REPLACE_POLICY = policy(WritePolicy.RecordExistsAction.REPLACE_ONLY);
+    private static final WritePolicy DELETE_POLICY = policy(WritePolicy.RecordExistsAction.NONE);
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private static WritePolicy policy(WritePolicy.RecordExistsAction recordExistsAction) {
+        return WritePolicy.builder()
+                .sequenceNumberPolicy(WritePolicy.SequenceNumberPolicy.NONE)
+                .recordExistsAction(recordExistsAction)
+                .build();
+    }
+
+    private static WritePolicy expectEqualPolicy(WritePolicy.RecordExistsAction recordExistsAction, long sequenceNumber) {
+        return WritePolicy.builder()
+                .sequenceNumberPolicy(WritePolicy.SequenceNumberPolicy.EXPECT_EQUAL)
+                .expectedSequenceNumber(sequenceNumber)
+                .recordExistsAction(recordExistsAction)
+                .build();
+    }
+
+    public WriteBatch put(byte[] key, byte[] value) {
+        return write(WriteOps.PUT, PUT_POLICY, key, value);
+    }
+
+    public WriteBatch putIfAbsent(byte[] key, byte[] value) {
+        return write(WriteOps.PUT, PUT_IF_ABSENT_POLICY, key, value);
+    }
+
+    public WriteBatch replace(byte[] key, byte[] value) {
+        return write(WriteOps.PUT, REPLACE_POLICY, key, value);
+    }
+
+    // for read-modify-write pattern
+    public WriteBatch replaceWithSequenceNumberEquals(byte[] key, byte[] value, long sequenceNumber) {
+        return write(WriteOps.PUT, expectEqualPolicy(WritePolicy.RecordExistsAction.REPLACE_ONLY, sequenceNumber), key, value);
+    }
+
+    public WriteBatch delete(byte[] key) {
+        return write(WriteOps.DELETE, DELETE_POLICY, key, null);
+    }
+
+    // for read-modify-write pattern
+    public WriteBatch deleteWithSequenceNumberEquals(byte[] key, long sequenceNumber) {
+        return write(WriteOps.DELETE, expectEqualPolicy(WritePolicy.RecordExistsAction.NONE, sequenceNumber), key, null);
+    }
+
+    public WriteBatch write(WriteOps ops, WritePolicy policy, byte[] key, byte[] value) {
+        entries.add(new Entry(ops, policy, key, value));
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final WriteOps ops;
+        private final WritePolicy policy;
+        private final byte[] key;
+        private final byte[] value;
+    }
+}
@@ -0,0 +1,372 @@
+package io.github.tuannh982.phantom.db.index;
+
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.os.OSConstants;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Murmur3;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+on-heap index on primitive arrays, no object per key.
+keys are striped by hash, each stripe is an open addressing table (linear probing, backward shift deletion) of long slots:
+slot = hash(32 bits, also fingerprint) << 32 | (entry + 1), 0 = empty slot.
+entry metadata is packed in int[] (file_id, value_offset, value_size, key_offset, key_length) and long[] (sequence_number),
+keys (of any length) are appended to a byte[] arena. arena is compacted instead of grown if half of it is garbage.
+writes lock the stripe exclusively, reads are optimistic with read lock fallback (arrays are only replaced, never reused,
+so an inconsistent read could only be a wrong result or an exception, both are discarded)
+ */
+public class CompactOnHeapInMemoryIndex implements IndexMap {
+    private final Hasher hasher = new Murmur3();
+    private final Stripe[] stripes;
+    private final int stripeBitShift;
+
+    public CompactOnHeapInMemoryIndex() {
+        int stripeCount = NumberUtils.roundUpToPowerOf2(2 * Runtime.getRuntime().availableProcessors());
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeBitShift = OSConstants.WORD_SIZE_AS_BIT - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    private Stripe stripe(long hash) {
+        if (stripes.length == 1) {
+            return stripes[0]; // shift by 64 is a no-op
+        }
+        return stripes[(int) (hash >>> stripeBitShift)];
+    }
+
+    @Override
+    public IndexMetadata get(byte[] key) {
+        long hash = hasher.hash(key);
+        IndexMetadata metadata = new IndexMetadata(0, 0, 0, 0);
+        return stripe(hash).get((int) hash, key, metadata) ? metadata : null;
+    }
+
+    @Override
+    public boolean get(byte[] key, IndexMetadata reuse) {
+        long hash = hasher.hash(key);
+        return stripe(hash).get((int) hash, key, reuse);
+    }
+
+    @Override
+    public void put(byte[] key, IndexMetadata metadata) {
+        long hash = hasher.hash(key);
+        stripe(hash).put((int) hash, key, metadata);
+    }
+
+    @Override
+    public IndexMetadata putIfAbsent(byte[] key, IndexMetadata metadata) {
+        long hash = hasher.hash(key);
+        return stripe(hash).putIfAbsent((int) hash, key, metadata);
+    }
+
+    @Override
+    public boolean replace(byte[] key, IndexMetadata oldValue, IndexMetadata newValue) {
+        if (newValue.getSequenceNumber() >= oldValue.getSequenceNumber()) { // compaction moves records with the same sequence number
+            long hash = hasher.hash(key);
+            return stripe(hash).replace((int) hash, key, oldValue, newValue);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        long hash = hasher.hash(key);
+        stripe(hash).delete((int) hash, key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // NOOP
+    }
+
+    private static class Stripe {
+        private static final int MAX_OPTIMISTIC_READ_ATTEMPTS = 4;
+        private static final float MAX_LOAD_FACTOR = 0.75f;
+        private static final int INITIAL_CAPACITY = 16;
+        private static final int NOT_FOUND = -1;
+        // entry fields
+        private static final int FILE_ID = 0;
+        private static final int VALUE_OFFSET = 1;
+        private static final int VALUE_SIZE = 2;
+        private static final int KEY_OFFSET = 3;
+        private static final int KEY_LENGTH = 4;
+        private static final int ENTRY_STRIDE = 5;
+
+        private final StampedLock lock = new StampedLock();
+        // slots
+        private long[] slots = new long[INITIAL_CAPACITY];
+        private int size = 0;
+        // entries
+        private int[] entries = new int[INITIAL_CAPACITY * ENTRY_STRIDE];
+        private long[] sequenceNumbers = new long[INITIAL_CAPACITY];
+        private int entryCount = 0; // allocated entries, include free entries
+        private int[] freeEntries = new int[INITIAL_CAPACITY];
+        private int freeEntryCount = 0;
+        // keys
+        private byte[] arena = new byte[INITIAL_CAPACITY * 16];
+        private int arenaSize = 0;
+        private int garbageSize = 0;
+
+        private static int entryOf(long slot) {
+            return (int) slot - 1;
+        }
+
+        private static int hashOf(long slot) {
+            return (int) (slot >>> 32);
+        }
+
+        private static boolean isKeyEquals(byte[] arena, int[] entries, int entry, byte[] key) {
+            int base = entry * ENTRY_STRIDE;
+            if (entries[base + KEY_LENGTH] != key.length) {
+                return false;
+            }
+            int keyOffset = entries[base + KEY_OFFSET];
+            for (int i = 0; i < key.length; i++) {
+                if (arena[keyOffset + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // probes are bounded by capacity, so a (torn) optimistic read never loops forever
+        private static int slotIndexOf(long[] slots, int[] entries, byte[] arena, int hash, byte[] key) {
+            int mask = slots.length - 1;
+            int index = hash & mask;
+            for (int probe = 0; probe < slots.length; probe++) {
+                long slot = slots[index];
+                if (slot == 0) {
+                    return NOT_FOUND;
+                }
+                if (hashOf(slot) == hash && isKeyEquals(arena, entries, entryOf(slot), key)) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        private int slotIndexOf(int hash, byte[] key) {
+            return slotIndexOf(slots, entries, arena, hash, key);
+        }
+
+        public boolean get(int hash, byte[] key, IndexMetadata reuse) {
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp == 0) {
+                    continue; // write in progress
+                }
+                try {
+                    boolean found = find(hash, key, reuse);
+                    if (lock.validate(stamp)) {
+                        return found;
+                    }
+                } catch (RuntimeException e) {
+                    // inconsistent read (e.g. index out of bound of replaced array), retry
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return find(hash, key, reuse);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private boolean find(int hash, byte[] key, IndexMetadata reuse) {
+            long[] currentSlots = slots;
+            int[] currentEntries = entries;
+            long[] currentSequenceNumbers = sequenceNumbers;
+            int index = slotIndexOf(currentSlots, currentEntries, arena, hash, key);
+            if (index == NOT_FOUND) {
+                return false;
+            }
+            int entry = entryOf(currentSlots[index]);
+            int base = entry * ENTRY_STRIDE;
+            reuse.set(currentEntries[base + FILE_ID], currentEntries[base + VALUE_OFFSET], currentEntries[base + VALUE_SIZE], currentSequenceNumbers[entry]);
+            return true;
+        }
+
+        public void put(int hash, byte[] key, IndexMetadata metadata) {
+            long stamp = lock.writeLock();
+            try {
+                int index = slotIndexOf(hash, key);
+                if (index != NOT_FOUND) {
+                    setEntry(entryOf(slots[index]), metadata);
+                    return;
+                }
+                insert(hash, key, metadata);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public IndexMetadata putIfAbsent(int hash, byte[] key, IndexMetadata metadata) {
+            long stamp = lock.writeLock();
+            try {
+                int index = slotIndexOf(hash, key);
+                if (index != NOT_FOUND) {
+                    return getEntry(entryOf(slots[index]));
+                }
+                insert(hash, key, metadata);
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public boolean replace(int hash, byte[] key, IndexMetadata oldValue, IndexMetadata newValue) {
+            long stamp = lock.writeLock();
+            try {
+                int index = slotIndexOf(hash, key);
+                if (index == NOT_FOUND) {
+                    return false;
+                }
+                int entry = entryOf(slots[index]);
+                if (!oldValue.equals(getEntry(entry))) {
+                    return false;
+                }
+                setEntry(entry, newValue);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public void delete(int hash, byte[] key) {
+            long stamp = lock.writeLock();
+            try {
+                int hole = slotIndexOf(hash, key);
+                if (hole == NOT_FOUND) {
+                    return;
+                }
+                freeEntry(entryOf(slots[hole]));
+                // shift back following slots of the probe sequence, a slot could fill the hole if its home is not in (hole, index]
+                int mask = slots.length - 1;
+                int index = (hole + 1) & mask;
+                while (slots[index] != 0) {
+                    int home = hashOf(slots[index]) & mask;
+                    if (((index - home) & mask) >= ((index - hole) & mask)) {
+                        slots[hole] = slots[index];
+                        hole = index;
+                    }
+                    index = (index + 1) & mask;
+                }
+                slots[hole] = 0;
+                size--;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private IndexMetadata getEntry(int entry) {
+            int base = entry * ENTRY_STRIDE;
+            return new IndexMetadata(entries[base + FILE_ID], entries[base + VALUE_OFFSET], entries[base + VALUE_SIZE], sequenceNumbers[entry]);
+        }
+
+        private void setEntry(int entry, IndexMetadata metadata) {
+            int base = entry * ENTRY_STRIDE;
+            entries[base + FILE_ID] = metadata.getFileId();
+            entries[base + VALUE_OFFSET] = metadata.getValueOffset();
+            entries[base + VALUE_SIZE] = metadata.getValueSize();
+            sequenceNumbers[entry] = metadata.getSequenceNumber();
+        }
+
+        private void insert(int hash, byte[] key, IndexMetadata metadata) {
+            if (size + 1 > MAX_LOAD_FACTOR * slots.length) {
+                if (slots.length == NumberUtils.INTEGER_MAX_POWER_OF_TWO) {
+                    throw new OutOfMemoryError();
+                }
+                growSlots();
+            }
+            int entry = allocateEntry();
+            entries[entry * ENTRY_STRIDE + KEY_OFFSET] = appendKey(key);
+            entries[entry * ENTRY_STRIDE + KEY_LENGTH] = key.length;
+            setEntry(entry, metadata);
+            int mask = slots.length - 1;
+            int index = hash & mask;
+            while (slots[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            slots[index] = ((long) hash << 32) | (entry + 1);
+            size++;
+        }
+
+        private void growSlots() {
+            long[] newSlots = new long[slots.length << 1];
+            int mask = newSlots.length - 1;
+            for (long slot : slots) {
+                if (slot == 0) {
+                    continue;
+                }
+                int index = hashOf(slot) & mask;
+                while (newSlots[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                newSlots[index] = slot;
+            }
+            slots = newSlots;
+        }
+
+        private int allocateEntry() {
+            if (freeEntryCount > 0) {
+                return freeEntries[--freeEntryCount];
+            }
+            if (entryCount == sequenceNumbers.length) {
+                entries = Arrays.copyOf(entries, entries.length << 1);
+                sequenceNumbers = Arrays.copyOf(sequenceNumbers, sequenceNumbers.length << 1);
+            }
+            return entryCount++;
+        }
+
+        private void freeEntry(int entry) {
+            garbageSize += entries[entry * ENTRY_STRIDE + KEY_LENGTH];
+            if (freeEntryCount == freeEntries.length) {
+                freeEntries = Arrays.copyOf(freeEntries, freeEntries.length << 1);
+            }
+            freeEntries[freeEntryCount++] = entry;
+        }
+
+        // return offset of the key in arena
+        private int appendKey(byte[] key) {
+            int required = key.length;
+            if (arenaSize + required > arena.length) {
+                if (garbageSize >= arenaSize / 2) {
+                    compactArena(arena.length);
+                }
+                if (arenaSize + required > arena.length) {
+                    compactArena(Math.max(arena.length << 1, arenaSize + required));
+                }
+            }
+            int offset = arenaSize;
+            System.arraycopy(key, 0, arena, offset, key.length);
+            arenaSize += required;
+            return offset;
+        }
+
+        // copy keys of live entries to a new arena
+        private void compactArena(int capacity) {
+            byte[] newArena = new byte[capacity];
+            int newArenaSize = 0;
+            for (long slot : slots) {
+                if (slot == 0) {
+                    continue;
+                }
+                int base = entryOf(slot) * ENTRY_STRIDE;
+                int length = entries[base + KEY_LENGTH];
+                System.arraycopy(arena, entries[base + KEY_OFFSET], newArena, newArenaSize, length);
+                entries[base + KEY_OFFSET] = newArenaSize;
+                newArenaSize += length;
+            }
+            arena = newArena;
+            arenaSize = newArenaSize;
+            garbageSize = 0;
+        }
+    }
+}
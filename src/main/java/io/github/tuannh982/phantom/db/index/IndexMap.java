@@ -5,6 +5,15 @@ import java.io.IOException;
 
 public interface IndexMap extends Closeable {
     IndexMetadata get(byte[] key) throws IOException;
+    // read metadata into reuse (flyweight), return false if not found
+    default boolean get(byte[] key, IndexMetadata reuse) throws IOException {
+        IndexMetadata metadata = get(key);
+        if (metadata == null) {
+            return false;
+        }
+        reuse.set(metadata.getFileId(), metadata.getValueOffset(), metadata.getValueSize(), metadata.getSequenceNumber());
+        return true;
+    }
     void put(byte[] key, IndexMetadata metadata) throws IOException;
     IndexMetadata putIfAbsent(byte[] key, IndexMetadata metadata) throws IOException;
     boolean replace(byte[] key, IndexMetadata oldValue, IndexMetadata newValue) throws IOException;
@@ -1,8 +1,10 @@
 package io.github.tuannh982.phantom.db.index;
 
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
 import lombok.*;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 @EqualsAndHashCode
 @AllArgsConstructor
@@ -15,6 +17,7 @@ public class IndexMetadata {
     public static final int VALUE_OFFSET_OFFSET = 4;
     public static final int VALUE_SIZE_OFFSET = 4 + 4;
     public static final int SEQUENCE_NUMBER_OFFSET = 4 + 4 + 4;
+    private static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
 
     private int fileId;
     private int valueOffset;
@@ -37,4 +40,48 @@ public class IndexMetadata {
         long sequenceNumber = buffer.getLong(SEQUENCE_NUMBER_OFFSET);
         return new IndexMetadata(fileId, valueOffset, valueSize, sequenceNumber);
     }
+
+    // same (big endian) layout as serialize(), written straight into memory
+    public void serialize(long address) {
+        UnsafeWrapper.putInt(address, FILE_ID_OFFSET, bigEndian(fileId));
+        UnsafeWrapper.putInt(address, VALUE_OFFSET_OFFSET, bigEndian(valueOffset));
+        UnsafeWrapper.putInt(address, VALUE_SIZE_OFFSET, bigEndian(valueSize));
+        UnsafeWrapper.putLong(address, SEQUENCE_NUMBER_OFFSET, bigEndian(sequenceNumber));
+    }
+
+    // read into reuse (flyweight) if not null
+    public static IndexMetadata deserialize(long address, IndexMetadata reuse) {
+        int fileId = bigEndian(UnsafeWrapper.getInt(address, FILE_ID_OFFSET));
+        int valueOffset = bigEndian(UnsafeWrapper.getInt(address, VALUE_OFFSET_OFFSET));
+        int valueSize = bigEndian(UnsafeWrapper.getInt(address, VALUE_SIZE_OFFSET));
+        long sequenceNumber = bigEndian(UnsafeWrapper.getLong(address, SEQUENCE_NUMBER_OFFSET));
+        if (reuse == null) {
+            return new IndexMetadata(fileId, valueOffset, valueSize, sequenceNumber);
+        }
+        reuse.set(fileId, valueOffset, valueSize, sequenceNumber);
+        return reuse;
+    }
+
+    // compare with metadata serialized at address, field by field
+    public boolean isEquals(long address) {
+        return fileId == bigEndian(UnsafeWrapper.getInt(address, FILE_ID_OFFSET)) &&
+                valueOffset == bigEndian(UnsafeWrapper.getInt(address, VALUE_OFFSET_OFFSET)) &&
+                valueSize == bigEndian(UnsafeWrapper.getInt(address, VALUE_SIZE_OFFSET)) &&
+                sequenceNumber == bigEndian(UnsafeWrapper.getLong(address, SEQUENCE_NUMBER_OFFSET));
+    }
+
+    public void set(int fileId, int valueOffset, int valueSize, long sequenceNumber) {
+        this.fileId = fileId;
+        this.valueOffset = valueOffset;
+        this.valueSize = valueSize;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    private static int bigEndian(int x) {
+        return NATIVE_BIG_ENDIAN ? x : Integer.reverseBytes(x);
+    }
+
+    private static long bigEndian(long x) {
+        return NATIVE_BIG_ENDIAN ? x : Long.reverseBytes(x);
+    }
 }
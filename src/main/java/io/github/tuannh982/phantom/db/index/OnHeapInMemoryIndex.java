@@ -54,7 +54,7 @@ public class OnHeapInMemoryIndex implements IndexMap {
 
     @Override
     public boolean replace(byte[] key, IndexMetadata oldValue, IndexMetadata newValue) {
-        if (newValue.getSequenceNumber() > oldValue.getSequenceNumber()) {
+        if (newValue.getSequenceNumber() >= oldValue.getSequenceNumber()) { // compaction moves records with the same sequence number
             return map.replace(ByteArrayWrapper.of(key), oldValue, newValue);
         } else {
             return false;
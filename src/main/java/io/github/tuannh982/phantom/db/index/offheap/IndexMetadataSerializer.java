@@ -16,6 +16,21 @@ public class IndexMetadataSerializer implements ValueSerializer<IndexMetadata> {
         return IndexMetadata.deserialize(buffer);
     }
 
+    @Override
+    public void serialize(IndexMetadata value, long address) {
+        value.serialize(address);
+    }
+
+    @Override
+    public IndexMetadata deserialize(long address, IndexMetadata reuse) {
+        return IndexMetadata.deserialize(address, reuse);
+    }
+
+    @Override
+    public boolean isEquals(IndexMetadata value, long address) {
+        return value.isEquals(address);
+    }
+
     @Override
     public int serializedSize() {
         return IndexMetadata.METADATA_SIZE;
@@ -3,24 +3,25 @@ package io.github.tuannh982.phantom.db.index.offheap;
 import io.github.tuannh982.phantom.commons.number.NumberUtils;
 import io.github.tuannh982.phantom.db.index.IndexMap;
 import io.github.tuannh982.phantom.db.index.IndexMetadata;
+import io.github.tuannh982.phantom.offheap.hashtable.HashTable;
 import io.github.tuannh982.phantom.offheap.hashtable.HashTableOptions;
-import io.github.tuannh982.phantom.offheap.hashtable.KeyBuffer;
 import io.github.tuannh982.phantom.offheap.hashtable.OffHeapHashTable;
+import io.github.tuannh982.phantom.offheap.hashtable.openaddressing.OpenAddressingHashTable;
 import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
 import io.github.tuannh982.phantom.offheap.hashtable.hash.Murmur3;
 
 import java.io.IOException;
 
 public class OffHeapInMemoryIndex implements IndexMap {
-    private final OffHeapHashTable<IndexMetadata> hashTable;
+    private final HashTable<IndexMetadata> hashTable;
     private final Hasher hasher = new Murmur3();
 
-    public OffHeapInMemoryIndex(long estimatedMaxKeyCount, int maxKeySize, int memoryChunkSize) {
+    public OffHeapInMemoryIndex(long estimatedMaxKeyCount, int maxKeySize, int memoryChunkSize, boolean openAddressing) {
         int segmentCount = NumberUtils.roundUpToPowerOf2(2 * Runtime.getRuntime().availableProcessors());
         int entryTableSizePerSegment = 1 << 30;
         long e = estimatedMaxKeyCount / segmentCount;
         if (e < (1 << 30)) {
-            entryTableSizePerSegment = (int) e;
+            entryTableSizePerSegment = NumberUtils.roundUpToPowerOf2((int) e);
         }
         if (entryTableSizePerSegment < 256) {
             entryTableSizePerSegment = 256;
@@ -32,29 +33,39 @@ public class OffHeapInMemoryIndex implements IndexMap {
                 .segmentCount(segmentCount)
                 .entryTableSizePerSegment(entryTableSizePerSegment)
                 .valueSerializer(new IndexMetadataSerializer())
+                .hasher(hasher)
                 .build();
-        this.hashTable = new OffHeapHashTable<>(hashTableOptions);
+        if (openAddressing) {
+            this.hashTable = new OpenAddressingHashTable<>(hashTableOptions);
+        } else {
+            this.hashTable = new OffHeapHashTable<>(hashTableOptions);
+        }
     }
 
     @Override
     public IndexMetadata get(byte[] key) throws IOException {
-        return hashTable.get(new KeyBuffer(key, hasher));
+        return hashTable.get(key, hasher.hash(key), null);
+    }
+
+    @Override
+    public boolean get(byte[] key, IndexMetadata reuse) throws IOException {
+        return hashTable.get(key, hasher.hash(key), reuse) != null;
     }
 
     @Override
     public void put(byte[] key, IndexMetadata metadata) throws IOException {
-        hashTable.put(new KeyBuffer(key, hasher), metadata);
+        hashTable.put(key, hasher.hash(key), metadata);
     }
 
     @Override
     public IndexMetadata putIfAbsent(byte[] key, IndexMetadata metadata) throws IOException {
-        return hashTable.putIfAbsent(new KeyBuffer(key, hasher), metadata);
+        return hashTable.putIfAbsent(key, hasher.hash(key), metadata);
     }
 
     @Override
     public boolean replace(byte[] key, IndexMetadata oldValue, IndexMetadata newValue) throws IOException {
         if (newValue.getSequenceNumber() >= oldValue.getSequenceNumber()) {
-            return hashTable.replace(new KeyBuffer(key, hasher), oldValue, newValue);
+            return hashTable.replace(key, hasher.hash(key), oldValue, newValue);
         } else {
             return false;
         }
@@ -62,7 +73,7 @@ public class OffHeapInMemoryIndex implements IndexMap {
 
     @Override
     public void delete(byte[] key) throws IOException {
-        hashTable.remove(new KeyBuffer(key, hasher));
+        hashTable.remove(key, hasher.hash(key));
     }
 
     @Override
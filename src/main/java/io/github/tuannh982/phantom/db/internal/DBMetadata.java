@@ -19,18 +19,23 @@ import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 @Setter
 public class DBMetadata {
     private static final String METADATA_FILENAME = "METADATA";
-    private static final int METADATA_SIZE = 1 + 1 + 1 + 4 + 4; // version(1), is_open(1), io_error(1), max_file_size(4), checksum(4)
-    private static final int METADATA_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 1 + 4;
+    private static final int METADATA_SIZE = 1 + 1 + 1 + 4 + 4 + 4; // version(1), is_open(1), io_error(1), max_file_size(4), write_partitions(4), checksum(4)
+    private static final int METADATA_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 1 + 4 + 4;
     private static final int VERSION_OFFSET = 0;
     private static final int OPEN_OFFSET = 1;
     private static final int IO_ERROR_OFFSET = 1 + 1;
     private static final int MAX_FILE_SIZE_OFFSET = 1 + 1 + 1;
-    private static final int CHECKSUM_OFFSET = 1 + 1 + 1 + 4;
+    private static final int WRITE_PARTITIONS_OFFSET = 1 + 1 + 1 + 4;
+    private static final int CHECKSUM_OFFSET = 1 + 1 + 1 + 4 + 4;
+    // legacy version (0x1d, before write partitions): version(1), is_open(1), io_error(1), max_file_size(4), checksum(4)
+    private static final int LEGACY_METADATA_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 1 + 4;
+    private static final int LEGACY_CHECKSUM_OFFSET = 1 + 1 + 1 + 4;
 
     private byte version;
     private boolean open;
     private boolean ioError;
     private int maxFileSize;
+    private int writePartitions; // of last open, to find the active files of each partition on repair
     //
     @Getter(AccessLevel.NONE)
     @Setter(AccessLevel.NONE)
@@ -41,19 +46,22 @@ public class DBMetadata {
         this.open = false;
         this.ioError = false;
         this.maxFileSize = 0;
+        this.writePartitions = 1;
         this.checksum = 0;
     }
 
-    private DBMetadata(byte version, boolean open, boolean ioError, int maxFileSize, long checksum) throws IOException {
+    private DBMetadata(byte version, boolean open, boolean ioError, int maxFileSize, int writePartitions, long checksum) throws IOException {
         this.version = version;
         this.open = open;
         this.ioError = ioError;
         this.maxFileSize = maxFileSize;
+        this.writePartitions = writePartitions;
         ByteBuffer buffer = ByteBuffer.allocate(METADATA_SIZE);
         buffer.put(VERSION_OFFSET, version);
         buffer.put(OPEN_OFFSET, (byte) (open ? 0x01 : 0x00));
         buffer.put(IO_ERROR_OFFSET, (byte) (ioError ? 0x01 : 0x00));
         buffer.putInt(MAX_FILE_SIZE_OFFSET, maxFileSize);
+        buffer.putInt(WRITE_PARTITIONS_OFFSET, writePartitions);
         long calculatedChecksum = checksum(buffer);
         if (checksum != calculatedChecksum) {
             throw new IOException("checksum failed. metadata corrupted");
@@ -73,6 +81,7 @@ public class DBMetadata {
         buffer.put(OPEN_OFFSET, (byte) (open ? 0x01 : 0x00));
         buffer.put(IO_ERROR_OFFSET, (byte) (ioError ? 0x01 : 0x00));
         buffer.putInt(MAX_FILE_SIZE_OFFSET, maxFileSize);
+        buffer.putInt(WRITE_PARTITIONS_OFFSET, writePartitions);
         checksum = checksum(buffer);
         buffer.putInt(CHECKSUM_OFFSET, NumberUtils.fromUInt32(checksum));
         return buffer;
@@ -80,11 +89,29 @@ public class DBMetadata {
 
     public static DBMetadata deserialize(ByteBuffer buffer) throws IOException {
         byte version = buffer.get(VERSION_OFFSET);
+        if (version == Versions.LEGACY_METADATA_FILE_VERSION) {
+            return deserializeLegacy(buffer);
+        }
         boolean open = buffer.get(OPEN_OFFSET) != 0;
         boolean ioError = buffer.get(IO_ERROR_OFFSET) != 0;
         int maxFileSize = buffer.getInt(MAX_FILE_SIZE_OFFSET);
+        int writePartitions = buffer.getInt(WRITE_PARTITIONS_OFFSET);
         long checksum = NumberUtils.toUInt32(buffer.getInt(CHECKSUM_OFFSET));
-        return new DBMetadata(version, open, ioError, maxFileSize, checksum);
+        return new DBMetadata(version, open, ioError, maxFileSize, writePartitions, checksum);
+    }
+
+    // upgraded to current version (saved on open), legacy db had a single write partition
+    private static DBMetadata deserializeLegacy(ByteBuffer buffer) throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 0, LEGACY_METADATA_SIZE_WITHOUT_CHECKSUM);
+        if (crc32.getValue() != NumberUtils.toUInt32(buffer.getInt(LEGACY_CHECKSUM_OFFSET))) {
+            throw new IOException("checksum failed. metadata corrupted");
+        }
+        DBMetadata metadata = new DBMetadata();
+        metadata.open = buffer.get(OPEN_OFFSET) != 0;
+        metadata.ioError = buffer.get(IO_ERROR_OFFSET) != 0;
+        metadata.maxFileSize = buffer.getInt(MAX_FILE_SIZE_OFFSET);
+        return metadata;
     }
 
     public static DBMetadata load(DBDirectory dbDirectory) throws IOException {
@@ -0,0 +1,9 @@
+package io.github.tuannh982.phantom.db.internal;
+
+public enum DurabilityMode {
+    SYNC_WRITE, // fsync after every write to data/tombstone files
+    SYNC_COMMIT, // fsync once per commit (a single write, a group commit group or a write batch)
+    SYNC_PERIODIC, // fsync by background syncer thread every syncInterval ms
+    FLUSH_THRESHOLD, // fsync inline when unflushed data exceed dataFlushThreshold
+    OS, // never fsync, leave it to the OS (files are still fsync-ed on rollover and close)
+}
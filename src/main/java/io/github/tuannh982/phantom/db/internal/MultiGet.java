@@ -0,0 +1,133 @@
+package io.github.tuannh982.phantom.db.internal;
+
+import io.github.tuannh982.phantom.db.command.GetResult;
+import io.github.tuannh982.phantom.db.index.IndexMap;
+import io.github.tuannh982.phantom.db.index.IndexMetadata;
+import io.github.tuannh982.phantom.db.internal.file.DBFile;
+import io.github.tuannh982.phantom.offheap.cache.OffHeapValueCache;
+import lombok.AllArgsConstructor;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+resolve all keys first, then read values file by file in value offset order.
+values of near records (gap = record header + key, or a few small records) are read by one positional read,
+different files are read in parallel if read executor is available
+ */
+public class MultiGet {
+    public static final int MAX_GAP = 4 * 1024;
+    public static final int MAX_READ_SIZE = 1024 * 1024;
+
+    private final IndexMap indexMap;
+    private final NavigableMap<Integer, DBFile> dataFileMap;
+    private final OffHeapValueCache valueCache; // nullable
+    private final ExecutorService readExecutor; // nullable
+
+    public MultiGet(IndexMap indexMap, NavigableMap<Integer, DBFile> dataFileMap, OffHeapValueCache valueCache, ExecutorService readExecutor) {
+        this.indexMap = indexMap;
+        this.dataFileMap = dataFileMap;
+        this.valueCache = valueCache;
+        this.readExecutor = readExecutor;
+    }
+
+    @AllArgsConstructor
+    private static class ReadEntry {
+        private final int index;
+        private final byte[] key;
+        private final IndexMetadata metadata;
+    }
+
+    public List<GetResult> get(List<byte[]> keys) throws IOException {
+        GetResult[] results = new GetResult[keys.size()];
+        Map<Integer, List<ReadEntry>> fileGroups = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            IndexMetadata metadata = indexMap.get(key);
+            if (metadata == null) {
+                results[i] = GetResult.NULL;
+                continue;
+            }
+            if (valueCache != null) {
+                byte[] cachedValue = valueCache.get(key, metadata.getSequenceNumber());
+                if (cachedValue != null) {
+                    results[i] = new GetResult(cachedValue, metadata.getSequenceNumber());
+                    continue;
+                }
+            }
+            fileGroups.computeIfAbsent(metadata.getFileId(), k -> new ArrayList<>()).add(new ReadEntry(i, key, metadata));
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        Iterator<Map.Entry<Integer, List<ReadEntry>>> iterator = fileGroups.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, List<ReadEntry>> group = iterator.next();
+            if (readExecutor == null || !iterator.hasNext()) { // last group is read in calling thread
+                read(group.getKey(), group.getValue(), results);
+            } else {
+                futures.add(readExecutor.submit(() -> {
+                    read(group.getKey(), group.getValue(), results);
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private void read(int fileId, List<ReadEntry> entries, GetResult[] results) throws IOException {
+        DBFile file = dataFileMap.get(fileId);
+        if (file == null) {
+            for (ReadEntry entry : entries) {
+                results[entry.index] = GetResult.NULL;
+            }
+            return;
+        }
+        entries.sort(Comparator.comparingInt(entry -> entry.metadata.getValueOffset()));
+        int from = 0;
+        while (from < entries.size()) {
+            int start = entries.get(from).metadata.getValueOffset();
+            int end = start + entries.get(from).metadata.getValueSize();
+            int to = from + 1;
+            while (to < entries.size()) {
+                IndexMetadata next = entries.get(to).metadata;
+                int nextEnd = Math.max(end, next.getValueOffset() + next.getValueSize());
+                if (next.getValueOffset() - end > MAX_GAP || nextEnd - start > MAX_READ_SIZE) {
+                    break;
+                }
+                end = nextEnd;
+                to++;
+            }
+            if (to - from == 1) {
+                IndexMetadata metadata = entries.get(from).metadata;
+                complete(entries.get(from), file.read(metadata.getValueOffset(), metadata.getValueSize()), results);
+            } else {
+                byte[] range = file.read(start, end - start);
+                for (int i = from; i < to; i++) {
+                    IndexMetadata metadata = entries.get(i).metadata;
+                    int valueStart = metadata.getValueOffset() - start;
+                    complete(entries.get(i), Arrays.copyOfRange(range, valueStart, valueStart + metadata.getValueSize()), results);
+                }
+            }
+            from = to;
+        }
+    }
+
+    private void complete(ReadEntry entry, byte[] value, GetResult[] results) {
+        if (valueCache != null) {
+            valueCache.put(entry.key, entry.metadata.getSequenceNumber(), value);
+        }
+        results[entry.index] = new GetResult(value, entry.metadata.getSequenceNumber());
+    }
+}
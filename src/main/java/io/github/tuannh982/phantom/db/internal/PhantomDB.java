@@ -3,12 +3,20 @@ package io.github.tuannh982.phantom.db.internal;
 import io.github.tuannh982.phantom.db.DB;
 import io.github.tuannh982.phantom.db.DBException;
 import io.github.tuannh982.phantom.db.command.GetResult;
+import io.github.tuannh982.phantom.db.command.MetadataResult;
 import io.github.tuannh982.phantom.db.command.ModifyResult;
+import io.github.tuannh982.phantom.db.command.WriteBatch;
 import io.github.tuannh982.phantom.db.command.WriteOps;
+import io.github.tuannh982.phantom.db.internal.commit.WriteRequest;
 import io.github.tuannh982.phantom.db.policy.WritePolicy;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class PhantomDB implements DB {
     private final PhantomDBInternal internal;
@@ -25,6 +33,26 @@ public class PhantomDB implements DB {
         return internal.get(key);
     }
 
+    @Override
+    public List<GetResult> multiGet(List<byte[]> keys) throws IOException {
+        return internal.multiGet(keys);
+    }
+
+    @Override
+    public boolean exists(byte[] key) throws IOException {
+        return internal.exists(key);
+    }
+
+    @Override
+    public int valueSize(byte[] key) throws IOException {
+        return internal.valueSize(key);
+    }
+
+    @Override
+    public MetadataResult getMetadata(byte[] key) throws IOException {
+        return internal.getMetadata(key);
+    }
+
     @Override
     public ModifyResult put(byte[] key, byte[] value) throws IOException {
         return internal.put(key, value);
@@ -45,33 +73,133 @@ public class PhantomDB implements DB {
         return internal.delete(key);
     }
 
-    @SuppressWarnings("java:S3776")
     @Override
     public ModifyResult write(WriteOps ops, WritePolicy policy, byte[] key, byte[] value) throws IOException {
+        WriteRequest request = toWriteRequest(ops, policy, key, value);
+        if (request == null) {
+            return ModifyResult.FAILED;
+        }
+        return internal.write(request);
+    }
+
+    @Override
+    public List<ModifyResult> write(WriteBatch batch) throws IOException {
+        List<WriteBatch.Entry> entries = batch.getEntries();
+        List<WriteRequest> requests = new ArrayList<>(entries.size());
+        for (WriteBatch.Entry entry : entries) {
+            WriteRequest request = toWriteRequest(entry.getOps(), entry.getPolicy(), entry.getKey(), entry.getValue());
+            if (request == null) {
+                request = WriteRequest.unsupported(entry.getKey());
+            }
+            requests.add(request);
+        }
+        return internal.writeBatch(requests);
+    }
+
+    @Override
+    public CompletableFuture<GetResult> getAsync(byte[] key) {
+        return internal.getAsync(key, null);
+    }
+
+    @Override
+    public CompletableFuture<GetResult> getAsync(byte[] key, Executor completionExecutor) {
+        return internal.getAsync(key, completionExecutor);
+    }
+
+    @Override
+    public CompletableFuture<ModifyResult> putAsync(byte[] key, byte[] value) {
+        return internal.writeAsync(WriteRequest.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<ModifyResult> deleteAsync(byte[] key) {
+        return internal.writeAsync(WriteRequest.delete(key));
+    }
+
+    @Override
+    public CompletableFuture<ModifyResult> writeAsync(WriteOps ops, WritePolicy policy, byte[] key, byte[] value) {
+        WriteRequest request = toWriteRequest(ops, policy, key, value);
+        if (request == null) {
+            return CompletableFuture.completedFuture(ModifyResult.FAILED);
+        }
+        return internal.writeAsync(request);
+    }
+
+    @Override
+    public GetResult get(ByteBuffer key, ByteBuffer value) throws IOException {
+        return internal.get(toKey(key), value);
+    }
+
+    @Override
+    public ModifyResult put(ByteBuffer key, ByteBuffer value) throws IOException {
+        return internal.write(WriteRequest.put(toKey(key), value));
+    }
+
+    @Override
+    public ModifyResult putIfAbsent(ByteBuffer key, ByteBuffer value) throws IOException {
+        return internal.write(WriteRequest.putIfAbsent(toKey(key), value));
+    }
+
+    @Override
+    public ModifyResult replace(ByteBuffer key, ByteBuffer value) throws IOException {
+        return internal.write(WriteRequest.replace(toKey(key), value));
+    }
+
+    @Override
+    public ModifyResult delete(ByteBuffer key) throws IOException {
+        return internal.delete(toKey(key));
+    }
+
+    @Override
+    public CompletableFuture<ModifyResult> putAsync(ByteBuffer key, ByteBuffer value) {
+        return internal.writeAsync(WriteRequest.put(toKey(key), value));
+    }
+
+    // keys are small (maxKeySize), and are kept as byte array by the index
+    private static byte[] toKey(ByteBuffer key) {
+        byte[] bytes = new byte[key.remaining()];
+        int position = key.position();
+        key.get(bytes);
+        key.position(position);
+        return bytes;
+    }
+
+    // return null if the combination is not supported
+    @SuppressWarnings("java:S3776")
+    private static WriteRequest toWriteRequest(WriteOps ops, WritePolicy policy, byte[] key, byte[] value) {
         WritePolicy.SequenceNumberPolicy sequenceNumberPolicy = policy.getSequenceNumberPolicy();
         WritePolicy.RecordExistsAction recordExistsAction = policy.getRecordExistsAction();
         if (WritePolicy.combinable(ops, sequenceNumberPolicy, recordExistsAction)) {
             if (ops == WriteOps.PUT) {
                 if (sequenceNumberPolicy == WritePolicy.SequenceNumberPolicy.NONE) {
                     if (recordExistsAction == WritePolicy.RecordExistsAction.NONE) {
-                        return internal.put(key, value);
+                        return WriteRequest.put(key, value);
                     } else if (recordExistsAction == WritePolicy.RecordExistsAction.CREATE_ONLY) {
-                        return internal.putIfAbsent(key, value);
+                        return WriteRequest.putIfAbsent(key, value);
                     } else if (recordExistsAction == WritePolicy.RecordExistsAction.REPLACE_ONLY) {
-                        return internal.replace(key, value);
+                        return WriteRequest.replace(key, value);
                     }
                 } else if (sequenceNumberPolicy == WritePolicy.SequenceNumberPolicy.EXPECT_EQUAL) {
-                    return internal.replaceWithSequenceNumberEquals(key, value, policy.getExpectedSequenceNumber());
+                    return WriteRequest.replaceWithSequenceNumberEquals(key, value, policy.getExpectedSequenceNumber());
                 }
             } else if (ops == WriteOps.DELETE) {
                 if (sequenceNumberPolicy == WritePolicy.SequenceNumberPolicy.NONE) {
-                    return internal.delete(key);
+                    return WriteRequest.delete(key);
                 } else if (sequenceNumberPolicy == WritePolicy.SequenceNumberPolicy.EXPECT_EQUAL) {
-                    return internal.deleteWithSequenceNumberEquals(key, policy.getExpectedSequenceNumber());
+                    return WriteRequest.deleteWithSequenceNumberEquals(key, policy.getExpectedSequenceNumber());
                 }
             }
         }
-        return ModifyResult.FAILED;
+        return null;
+    }
+
+    // value cache counters, 0 if cache is disabled
+    public long valueCacheHitCount() {
+        return internal.getValueCache() == null ? 0 : internal.getValueCache().getHitCount().sum();
+    }
+
+    public long valueCacheMissCount() {
+        return internal.getValueCache() == null ? 0 : internal.getValueCache().getMissCount().sum();
     }
 
     @Override
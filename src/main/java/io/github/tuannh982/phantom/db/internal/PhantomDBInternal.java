@@ -1,9 +1,11 @@
 package io.github.tuannh982.phantom.db.internal;
 
-import io.github.tuannh982.phantom.commons.concurrent.RLock;
 import io.github.tuannh982.phantom.db.command.GetResult;
+import io.github.tuannh982.phantom.db.command.MetadataResult;
 import io.github.tuannh982.phantom.db.command.ModifyResult;
 import io.github.tuannh982.phantom.db.index.offheap.OffHeapInMemoryIndex;
+import io.github.tuannh982.phantom.db.internal.commit.Appender;
+import io.github.tuannh982.phantom.db.internal.commit.WriteRequest;
 import io.github.tuannh982.phantom.db.internal.file.Record;
 import io.github.tuannh982.phantom.db.internal.file.TombstoneFile;
 import io.github.tuannh982.phantom.db.internal.file.TombstoneFileEntry;
@@ -13,23 +15,33 @@ import io.github.tuannh982.phantom.db.DBException;
 import io.github.tuannh982.phantom.db.index.IndexMap;
 import io.github.tuannh982.phantom.db.index.IndexMetadata;
 import io.github.tuannh982.phantom.db.index.OnHeapInMemoryIndex;
+import io.github.tuannh982.phantom.db.index.CompactOnHeapInMemoryIndex;
 import io.github.tuannh982.phantom.db.internal.compact.CompactionManager;
 import io.github.tuannh982.phantom.db.internal.file.DBFile;
+import io.github.tuannh982.phantom.db.internal.sync.Syncer;
 import io.github.tuannh982.phantom.db.internal.utils.CompactionUtils;
+import io.github.tuannh982.phantom.offheap.cache.OffHeapValueCache;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public class PhantomDBInternal implements Closeable {
+    // per thread flyweight of read path index lookups, must not escape get
+    private static final ThreadLocal<IndexMetadata> READ_METADATA = ThreadLocal.withInitial(() -> new IndexMetadata(0, 0, 0, 0));
     // primary
     private final DBDirectory dbDirectory;
     @Getter
@@ -39,21 +51,34 @@ public class PhantomDBInternal implements Closeable {
     private final Map<Integer, Integer> tombstoneLastAssociateDataFileMap;
     private final Map<Integer, Integer> staleDataMap;
     private final NavigableMap<Integer, DBFile> dataFileMap;
-    // files
-    private DBFile currentDBFile;
-    private TombstoneFile currentTombstoneFile;
     // index
     @Getter
     private final IndexMap indexMap;
+    // value cache (null if disabled)
+    @Getter
+    private final OffHeapValueCache valueCache;
     // compaction
     @Getter
     private final CompactionManager compactionManager;
-    private boolean currentDBFileWillBeCompactedLater = false;
-    // lock
-    private final RLock writeLock;
+    // periodic fsync
+    private final Syncer syncer;
+    // async write
+    private final Appender appender;
+    // standby file creation
+    @Getter
+    private final ExecutorService fileCreator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "phantom-file-creator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // parallel reads of multiGet, disk reads of getAsync (null if disabled)
+    private final ExecutorService readExecutor;
+    private final MultiGet multiGet;
+    // write partitions (by key hash)
+    private final WritePartition[] partitions;
     //
-    private long sequenceNumber;
-    private int fileId;
+    private final AtomicLong sequenceNumber;
+    private final AtomicInteger fileId;
 
     @SuppressWarnings({"java:S3776", "java:S4042", "java:S899", "java:S2095"})
     public static PhantomDBInternal open(File dir, PhantomDBOptions options) throws IOException, DBException {
@@ -61,8 +86,6 @@ public class PhantomDBInternal implements Closeable {
         // db directory
         DBDirectory dbDirectory = new DBDirectory(dir);
         log.info("DBDirectory initiated");
-        // write lock
-        RLock writeLock = new RLock();
         log.info("Building data files map...");
         // index
         IndexMap indexMap = null;
@@ -70,8 +93,11 @@ public class PhantomDBInternal implements Closeable {
             indexMap = new OffHeapInMemoryIndex(
                     options.getEstimatedMaxKeyCount(),
                     options.getMaxKeySize(),
-                    options.getMemoryChunkSize()
+                    options.getMemoryChunkSize(),
+                    options.isOpenAddressingHashTable()
             );
+        } else if (options.isCompactOnHeapIndex()) {
+            indexMap = new CompactOnHeapInMemoryIndex();
         } else {
             indexMap = new OnHeapInMemoryIndex();
         }
@@ -96,10 +122,10 @@ public class PhantomDBInternal implements Closeable {
             }
             if (dbMetadata.isOpen() || dbMetadata.isIoError()) { // last open
                 log.warn("DB was not correctly shutdown last time. Trying to repair data files...");
-                // only have to repair the last data file (one data file, one compacted file)
-                DirectoryUtils.repairLatestDataFile(dataFileMap);
-                // repair last tombstone file
-                DirectoryUtils.repairLatestTombstoneFile(dbDirectory, options);
+                // only have to repair the last data file of each write partition of last open (and one compacted file)
+                List<List<TombstoneFileEntry>> batchTombstones = DirectoryUtils.repairLatestDataFiles(dataFileMap, dbMetadata.getWritePartitions());
+                // repair last tombstone file of each write partition
+                DirectoryUtils.repairLatestTombstoneFiles(dbDirectory, options, dbMetadata.getWritePartitions(), batchTombstones);
                 // no compacted tombstone should be exists, so just delete all
                 File[] compactedTombstoneFiles = DirectoryUtils.compactedTombstoneFiles(dbDirectory.file());
                 for (File file : compactedTombstoneFiles) {
@@ -114,6 +140,7 @@ public class PhantomDBInternal implements Closeable {
         dbMetadata.setOpen(true);
         dbMetadata.setIoError(false);
         dbMetadata.setMaxFileSize(options.getMaxFileSize());
+        dbMetadata.setWritePartitions(options.getWritePartitions());
         // save & reload directory
         dbMetadata.save(dbDirectory);
         log.info("DBMetadata loaded");
@@ -152,6 +179,8 @@ public class PhantomDBInternal implements Closeable {
         log.info("Initiating Compaction Manager...");
         CompactionManager compactionManager = new CompactionManager(dbDirectory, options);
         log.info("Compaction Manager initiated");
+        Syncer syncer = options.getDurabilityMode() == DurabilityMode.SYNC_PERIODIC ? new Syncer(options) : null;
+        Appender appender = options.getAsyncWriteQueueSize() > 0 ? new Appender(options.getAsyncWriteQueueSize(), WritePartition.MAX_GROUP_COMMIT_SIZE) : null;
         PhantomDBInternal dbInternal = new PhantomDBInternal(
                 dbDirectory,
                 options,
@@ -160,7 +189,8 @@ public class PhantomDBInternal implements Closeable {
                 dataFileMap,
                 indexMap,
                 compactionManager,
-                writeLock,
+                syncer,
+                appender,
                 maxSequenceNumber + 1,
                 maxFileId + 1
         );
@@ -185,6 +215,14 @@ public class PhantomDBInternal implements Closeable {
         log.info("Starting Compaction Manager...");
         compactionManager.start(dbInternal);
         log.info("Compaction Manager started");
+        if (syncer != null) {
+            syncer.start(dbInternal);
+            log.info("Syncer started, sync interval = {} ms", options.getSyncInterval());
+        }
+        if (appender != null) {
+            appender.start(dbInternal);
+            log.info("Appender started, queue size = {}", options.getAsyncWriteQueueSize());
+        }
         return dbInternal;
     }
 
@@ -198,7 +236,8 @@ public class PhantomDBInternal implements Closeable {
             NavigableMap<Integer, DBFile> dataFileMap,
             IndexMap indexMap,
             CompactionManager compactionManager,
-            RLock writeLock,
+            Syncer syncer,
+            Appender appender,
             long sequenceNumber,
             int fileId) {
         this.dbDirectory = dbDirectory;
@@ -208,215 +247,312 @@ public class PhantomDBInternal implements Closeable {
         this.staleDataMap = staleDataMap;
         this.dataFileMap = dataFileMap;
         this.indexMap = indexMap;
+        this.valueCache = options.getValueCacheSize() > 0 ? new OffHeapValueCache(
+                options.getValueCacheSize(),
+                options.getMaxKeySize(),
+                options.getValueCacheMaxValueSize(),
+                options.getHasher()
+        ) : null;
+        this.readExecutor = options.getNumberOfReadThread() > 0 ? Executors.newFixedThreadPool(options.getNumberOfReadThread(), runnable -> {
+            Thread thread = new Thread(runnable, "phantom-reader");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.multiGet = new MultiGet(indexMap, dataFileMap, valueCache, readExecutor);
         this.compactionManager = compactionManager;
-        this.writeLock = writeLock;
-        this.sequenceNumber = sequenceNumber;
-        this.fileId = fileId;
+        this.syncer = syncer;
+        this.appender = appender;
+        this.sequenceNumber = new AtomicLong(sequenceNumber);
+        this.fileId = new AtomicInteger(fileId);
+        this.partitions = new WritePartition[options.getWritePartitions()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new WritePartition(i, this, dbDirectory, options, indexMap);
+        }
     }
 
     @SuppressWarnings("java:S1168") // no result return null, not empty array
     public GetResult get(byte[] key) throws IOException {
-        IndexMetadata metadata = indexMap.get(key);
-        if (metadata == null) {
+        IndexMetadata metadata = READ_METADATA.get();
+        if (!indexMap.get(key, metadata)) {
             return GetResult.NULL;
         } else {
-            DBFile file = dataFileMap.get(metadata.getFileId());
-            if (file == null) {
-                return GetResult.NULL;
-            } else {
-                byte[] readValue = file.read(metadata.getValueOffset(), metadata.getValueSize());
-                return new GetResult(readValue, metadata.getSequenceNumber());
+            if (valueCache != null) {
+                byte[] cachedValue = valueCache.get(key, metadata.getSequenceNumber());
+                if (cachedValue != null) {
+                    return new GetResult(cachedValue, metadata.getSequenceNumber());
+                }
             }
+            return readValue(key, metadata);
         }
     }
 
-    public ModifyResult put(byte[] key, byte[] value) throws IOException {
-        boolean rlock = writeLock.lock();
-        try {
-            IndexMetadata existedMetadata = indexMap.get(key);
-            if (existedMetadata != null) {
-                // mark previous version as stale data
-                markDataAsStale(key, existedMetadata);
+    private GetResult readValue(byte[] key, IndexMetadata metadata) throws IOException {
+        DBFile file = dataFileMap.get(metadata.getFileId());
+        if (file == null) {
+            return GetResult.NULL;
+        } else {
+            byte[] readValue = file.read(metadata.getValueOffset(), metadata.getValueSize());
+            if (valueCache != null) {
+                valueCache.put(key, metadata.getSequenceNumber(), readValue);
             }
-            Record entry = new Record(key, value);
-            long toBeWrittenSequenceNumber = nextSequenceNumber();
-            entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-            IndexMetadata indexMetadata = writeToCurrentDBFile(entry);
-            indexMap.put(key, indexMetadata);
-            return new ModifyResult(true, toBeWrittenSequenceNumber);
-        } finally {
-            writeLock.release(rlock);
+            return new GetResult(readValue, metadata.getSequenceNumber());
         }
     }
 
-    public ModifyResult putIfAbsent(byte[] key, byte[] value) throws IOException {
-        boolean rlock = writeLock.lock();
+    /*
+    index lookup (and value cache) inline, disk read on read executor (or inline if there is no read executor).
+    future is completed on completionExecutor if not null
+     */
+    public CompletableFuture<GetResult> getAsync(byte[] key, Executor completionExecutor) {
+        CompletableFuture<GetResult> future = new CompletableFuture<>();
         try {
             IndexMetadata metadata = indexMap.get(key);
+            byte[] cachedValue = metadata != null && valueCache != null ? valueCache.get(key, metadata.getSequenceNumber()) : null;
             if (metadata == null) {
-                Record entry = new Record(key, value);
-                long toBeWrittenSequenceNumber = nextSequenceNumber();
-                entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-                IndexMetadata indexMetadata = writeToCurrentDBFile(entry);
-                indexMap.putIfAbsent(key, indexMetadata);
-                return new ModifyResult(true, toBeWrittenSequenceNumber);
+                future.complete(GetResult.NULL);
+            } else if (cachedValue != null) {
+                future.complete(new GetResult(cachedValue, metadata.getSequenceNumber()));
+            } else if (readExecutor == null) {
+                future.complete(readValue(key, metadata));
             } else {
-                return new ModifyResult(false, metadata.getSequenceNumber()); // already exists
+                readExecutor.execute(() -> {
+                    try {
+                        future.complete(readValue(key, metadata));
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
             }
-        } finally {
-            writeLock.release(rlock);
+        } catch (IOException | RuntimeException e) { // including rejected execution
+            future.completeExceptionally(e);
         }
+        return completionExecutor == null ? future : future.whenCompleteAsync((result, throwable) -> { }, completionExecutor);
     }
 
-    public ModifyResult replace(byte[] key, byte[] value) throws IOException {
-        boolean rlock = writeLock.lock();
-        try {
-            IndexMetadata existedMetadata = indexMap.get(key);
-            if (existedMetadata == null) {
-                return ModifyResult.FAILED; // not exists
+    // read value into dst (from its position), result value is always null
+    public GetResult get(byte[] key, ByteBuffer dst) throws IOException {
+        IndexMetadata metadata = READ_METADATA.get();
+        if (!indexMap.get(key, metadata)) {
+            return GetResult.NULL;
+        } else {
+            if (dst.remaining() < metadata.getValueSize()) {
+                throw new IllegalArgumentException("value buffer too small, value size = " + metadata.getValueSize());
+            }
+            if (valueCache != null && valueCache.get(key, metadata.getSequenceNumber(), dst)) {
+                return new GetResult(null, metadata.getSequenceNumber());
+            }
+            DBFile file = dataFileMap.get(metadata.getFileId());
+            if (file == null) {
+                return GetResult.NULL;
             } else {
-                Record entry = new Record(key, value);
-                long toBeWrittenSequenceNumber = nextSequenceNumber();
-                entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-                IndexMetadata indexMetadata = writeToCurrentDBFile(entry);
-                indexMap.replace(key, existedMetadata, indexMetadata);
-                // mark previous version as stale data
-                markDataAsStale(key, existedMetadata);
-                return new ModifyResult(true, toBeWrittenSequenceNumber);
+                int position = dst.position();
+                file.read(metadata.getValueOffset(), metadata.getValueSize(), dst);
+                if (valueCache != null) {
+                    ByteBuffer readValue = dst.duplicate();
+                    readValue.limit(dst.position());
+                    readValue.position(position);
+                    valueCache.put(key, metadata.getSequenceNumber(), readValue);
+                }
+                return new GetResult(null, metadata.getSequenceNumber());
             }
-        } finally {
-            writeLock.release(rlock);
         }
     }
 
+    // index only queries (no disk read)
+
+    public boolean exists(byte[] key) throws IOException {
+        return indexMap.get(key, READ_METADATA.get());
+    }
+
+    public int valueSize(byte[] key) throws IOException {
+        IndexMetadata metadata = READ_METADATA.get();
+        return indexMap.get(key, metadata) ? metadata.getValueSize() : -1;
+    }
+
+    public MetadataResult getMetadata(byte[] key) throws IOException {
+        IndexMetadata metadata = READ_METADATA.get();
+        if (!indexMap.get(key, metadata)) {
+            return MetadataResult.NULL;
+        }
+        return new MetadataResult(metadata.getValueSize(), metadata.getSequenceNumber());
+    }
+
+    // one result per key, in order
+    public List<GetResult> multiGet(List<byte[]> keys) throws IOException {
+        return multiGet.get(keys);
+    }
+
+    public ModifyResult put(byte[] key, byte[] value) throws IOException {
+        return submit(WriteRequest.put(key, value));
+    }
+
+    public ModifyResult putIfAbsent(byte[] key, byte[] value) throws IOException {
+        return submit(WriteRequest.putIfAbsent(key, value));
+    }
+
+    public ModifyResult replace(byte[] key, byte[] value) throws IOException {
+        return submit(WriteRequest.replace(key, value));
+    }
+
     // for read-modify-write pattern
     public ModifyResult replaceWithSequenceNumberEquals(byte[] key, byte[] value, long sequenceNumber) throws IOException {
-        boolean rlock = writeLock.lock();
-        try {
-            IndexMetadata existedMetadata = indexMap.get(key);
-            if (existedMetadata == null) {
-                return ModifyResult.FAILED; // not exists
-            } else if (existedMetadata.getSequenceNumber() != sequenceNumber) {
-                return new ModifyResult(false, existedMetadata.getSequenceNumber()); // sequence number not matched
-            } else {
-                Record entry = new Record(key, value);
-                long toBeWrittenSequenceNumber = nextSequenceNumber();
-                entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-                IndexMetadata indexMetadata = writeToCurrentDBFile(entry);
-                indexMap.replace(key, existedMetadata, indexMetadata);
-                // mark previous version as stale data
-                markDataAsStale(key, existedMetadata);
-                return new ModifyResult(true, toBeWrittenSequenceNumber);
-            }
-        } finally {
-            writeLock.release(rlock);
-        }
+        return submit(WriteRequest.replaceWithSequenceNumberEquals(key, value, sequenceNumber));
     }
 
     public ModifyResult delete(byte[] key) throws IOException {
-        boolean rlock = writeLock.lock();
-        try {
-            IndexMetadata existedMetadata = indexMap.get(key);
-            if (existedMetadata != null) {
-                indexMap.delete(key);
-                TombstoneFileEntry entry = new TombstoneFileEntry(key);
-                long toBeWrittenSequenceNumber = nextSequenceNumber();
-                entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-                writeToCurrentTombstoneFile(entry);
-                // mark previous version as stale data
-                markDataAsStale(key, existedMetadata);
-                return new ModifyResult(true, toBeWrittenSequenceNumber);
-            } else {
-                return ModifyResult.FAILED;
-            }
-        } finally {
-            writeLock.release(rlock);
-        }
+        return submit(WriteRequest.delete(key));
     }
 
     // for read-modify-write pattern
     public ModifyResult deleteWithSequenceNumberEquals(byte[] key, long sequenceNumber) throws IOException {
-        boolean rlock = writeLock.lock();
+        return submit(WriteRequest.deleteWithSequenceNumberEquals(key, sequenceNumber));
+    }
+
+    public ModifyResult write(WriteRequest request) throws IOException {
+        return submit(request);
+    }
+
+    private WritePartition partition(byte[] key) {
+        if (partitions.length == 1) {
+            return partitions[0];
+        }
+        return partitions[(int) ((options.getHasher().hash(key) & Long.MAX_VALUE) % partitions.length)];
+    }
+
+    // reject before anything is staged, a record is never written unless its key could be indexed
+    private void checkKeySize(byte[] key) {
+        if (key.length > options.getMaxKeySize()) {
+            throw new IllegalArgumentException("key size must not greater than " + options.getMaxKeySize());
+        }
+    }
+
+    private ModifyResult submit(WriteRequest request) throws IOException {
+        checkKeySize(request.getKey());
+        return partition(request.getKey()).submit(request);
+    }
+
+    public CompletableFuture<ModifyResult> writeAsync(WriteRequest request) {
         try {
-            IndexMetadata existedMetadata = indexMap.get(key);
-            if (existedMetadata != null && existedMetadata.getSequenceNumber() == sequenceNumber) {
-                indexMap.delete(key);
-                TombstoneFileEntry entry = new TombstoneFileEntry(key);
-                long toBeWrittenSequenceNumber = nextSequenceNumber();
-                entry.getHeader().setSequenceNumber(toBeWrittenSequenceNumber);
-                writeToCurrentTombstoneFile(entry);
-                // mark previous version as stale data
-                markDataAsStale(key, existedMetadata);
-                return new ModifyResult(true, toBeWrittenSequenceNumber);
-            } else {
-                return ModifyResult.FAILED;
+            checkKeySize(request.getKey());
+        } catch (IllegalArgumentException e) {
+            CompletableFuture<ModifyResult> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (appender == null) {
+            CompletableFuture<ModifyResult> future = new CompletableFuture<>();
+            try {
+                future.complete(submit(request));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
             }
-        } finally {
-            writeLock.release(rlock);
+            return future;
         }
+        return appender.submit(request);
     }
 
-    public long nextSequenceNumber() {
-        return sequenceNumber++;
+    // called by appender thread
+    public void commitGroup(List<WriteRequest> group) {
+        if (partitions.length == 1) {
+            partitions[0].commitGroup(group);
+            return;
+        }
+        // requests of the same key are in the same partition, so their order is kept
+        Map<WritePartition, List<WriteRequest>> partitionGroups = new LinkedHashMap<>();
+        for (WriteRequest request : group) {
+            partitionGroups.computeIfAbsent(partition(request.getKey()), k -> new ArrayList<>()).add(request);
+        }
+        for (Map.Entry<WritePartition, List<WriteRequest>> entry : partitionGroups.entrySet()) {
+            entry.getKey().commitGroup(entry.getValue());
+        }
     }
 
-    public int nextFileId() {
-        return fileId++;
+    /*
+    requests are applied in order, all or none of the successful ones will survive a crash.
+    write locks of all partitions of the batch keys are acquired (in partition order), then the whole batch is
+    written to the files of the first one
+     */
+    public List<ModifyResult> writeBatch(List<WriteRequest> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        for (WriteRequest request : batch) {
+            checkKeySize(request.getKey());
+        }
+        boolean[] involved = new boolean[partitions.length];
+        for (WriteRequest request : batch) {
+            involved[partition(request.getKey()).getPartitionId()] = true;
+        }
+        boolean[] rlocks = new boolean[partitions.length];
+        int first = -1;
+        for (int i = 0; i < partitions.length; i++) {
+            if (involved[i]) {
+                rlocks[i] = partitions[i].getWriteLock().lock();
+                first = first < 0 ? i : first;
+            }
+        }
+        try {
+            partitions[first].commit(batch, true);
+        } finally {
+            for (int i = partitions.length - 1; i >= 0; i--) {
+                if (involved[i]) {
+                    partitions[i].getWriteLock().release(rlocks[i]);
+                }
+            }
+        }
+        List<ModifyResult> results = new ArrayList<>(batch.size());
+        for (WriteRequest request : batch) {
+            results.add(request.get());
+        }
+        return results;
+    }
+
+    public long nextSequenceNumber() {
+        return sequenceNumber.getAndIncrement();
     }
 
-    private IndexMetadata writeToCurrentDBFile(Record entry) throws IOException {
-        rolloverCurrentDBFile(entry);
-        return currentDBFile.writeRecord(entry);
+    // file id of the given file class
+    public int nextFileId(int fileClass) {
+        int fileClassCount = WritePartition.fileClassCount(partitions.length);
+        while (true) {
+            int current = fileId.get();
+            int next = current + Math.floorMod(fileClass - current, fileClassCount);
+            if (fileId.compareAndSet(current, next + 1)) {
+                return next;
+            }
+        }
     }
 
-    private void writeToCurrentTombstoneFile(TombstoneFileEntry entry) throws IOException {
-        rolloverCurrentTombstoneFile(entry);
-        currentTombstoneFile.write(entry);
+    public int nextFileId() {
+        return nextFileId(WritePartition.sharedFileClass(partitions.length));
     }
 
-    public DBFile createNewDBFile() throws IOException {
-        DBFile file = DBFile.create(nextFileId(), dbDirectory, options, false);
+    public void registerDBFile(DBFile file) throws IOException {
         if (dataFileMap.putIfAbsent(file.getFileId(), file) != null) {
             throw new IOException("File already existed");
         }
+    }
+
+    // output file of compaction
+    public DBFile createNewDBFile() throws IOException {
+        DBFile file = DBFile.createForCompaction(nextFileId(), dbDirectory, options);
+        registerDBFile(file);
         return file;
     }
 
-    private void rolloverCurrentDBFile(Record entry) throws IOException {
-        if (currentDBFile == null) {
-            currentDBFile = createNewDBFile();
-            if (currentTombstoneFile != null) {
-                tombstoneLastAssociateDataFileMap.put(currentTombstoneFile.getFileId(), currentDBFile.getFileId());
-            }
-            dbDirectory.sync();
-        } else if (currentDBFile.getWriteOffset() + entry.serializedSize() > options.getMaxFileSize()) {
-            currentDBFile.flushToDisk();
-            if (currentDBFileWillBeCompactedLater) {
-                compactionManager.queueForCompaction(currentDBFile);
-                currentDBFileWillBeCompactedLater = false;
-            }
-            currentDBFile = createNewDBFile();
-            if (currentTombstoneFile != null) {
-                tombstoneLastAssociateDataFileMap.put(currentTombstoneFile.getFileId(), currentDBFile.getFileId());
-            }
-            dbDirectory.sync();
-        }
+    /*
+    tombstones of a closed tombstone file only shadow records written before it was closed, which are in data files
+    that already existed (records of a key might be written by any partition, via write batch)
+     */
+    public void associateTombstoneFile(int tombstoneFileId) {
+        Map.Entry<Integer, DBFile> lastDataFile = dataFileMap.lastEntry();
+        tombstoneLastAssociateDataFileMap.put(tombstoneFileId, lastDataFile == null ? -1 : lastDataFile.getKey());
     }
 
-    private void rolloverCurrentTombstoneFile(TombstoneFileEntry entry) throws IOException {
-        if (currentTombstoneFile == null) {
-            currentTombstoneFile = TombstoneFile.create(nextFileId(), dbDirectory, options);
-            if (currentDBFile != null) {
-                tombstoneLastAssociateDataFileMap.put(currentTombstoneFile.getFileId(), currentDBFile.getFileId());
-            }
-            dbDirectory.sync();
-        } else if (currentTombstoneFile.getWriteOffset() + entry.serializedSize() > options.getMaxTombstoneFileSize()) {
-            currentTombstoneFile.close();
-            currentTombstoneFile = TombstoneFile.create(nextFileId(), dbDirectory, options);
-            if (currentDBFile != null) {
-                tombstoneLastAssociateDataFileMap.put(currentTombstoneFile.getFileId(), currentDBFile.getFileId());
-            }
-            dbDirectory.sync();
+    // called by syncer, without write lock
+    public void syncCurrentFiles() throws IOException {
+        for (WritePartition partition : partitions) {
+            partition.syncCurrentFiles();
         }
     }
 
@@ -425,10 +561,15 @@ public class PhantomDBInternal implements Closeable {
         if (toBeCompactedFile == null) {
             staleDataMap.remove(fileId);
         } else if (staleSize > options.getCompactionThreshold() * toBeCompactedFile.getWriteOffset()) { // write offset equals to file size
-            if (fileId != currentDBFile.getFileId()) {
+            boolean current = false;
+            for (WritePartition partition : partitions) {
+                if (partition.compactLaterIfCurrent(fileId)) {
+                    current = true;
+                    break;
+                }
+            }
+            if (!current) {
                 compactionManager.queueForCompaction(toBeCompactedFile);
-            } else {
-                currentDBFileWillBeCompactedLater = true;
             }
             staleDataMap.remove(fileId);
         }
@@ -465,14 +606,24 @@ public class PhantomDBInternal implements Closeable {
     }
 
     public void close() throws IOException {
-        boolean rlock = writeLock.lock();
+        if (appender != null) {
+            appender.close(); // commit pending async writes first, appender needs write lock
+        }
+        boolean[] rlocks = new boolean[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            rlocks[i] = partitions[i].getWriteLock().lock();
+        }
         try {
+            if (syncer != null) {
+                syncer.close();
+            }
             compactionManager.close();
-            if (currentDBFile != null) {
-                currentDBFile.close();
+            for (WritePartition partition : partitions) {
+                partition.close();
             }
-            if (currentTombstoneFile != null) {
-                currentTombstoneFile.close();
+            fileCreator.shutdown();
+            if (readExecutor != null) {
+                readExecutor.shutdown();
             }
             for (DBFile dbFile : dataFileMap.values()) {
                 dbFile.close();
@@ -484,8 +635,13 @@ public class PhantomDBInternal implements Closeable {
             if (!options.isOffHeapHashTable()) {
                 indexMap.close();
             }
+            if (valueCache != null) {
+                valueCache.close();
+            }
         } finally {
-            writeLock.release(rlock);
+            for (int i = partitions.length - 1; i >= 0; i--) {
+                partitions[i].getWriteLock().release(rlocks[i]);
+            }
         }
     }
 }
@@ -16,8 +16,21 @@ public class PhantomDBOptions {
     private final float compactionThreshold;
     private final Hasher hasher = new Murmur3();
     private final boolean offHeapHashTable;
+    private final boolean compactOnHeapIndex; // on-heap index on primitive arrays instead of ConcurrentHashMap, if not offHeapHashTable
     private final long estimatedMaxKeyCount;
     private final int memoryChunkSize;
+    private final boolean openAddressingHashTable; // off-heap index uses open addressing (keys and values inline in slots) instead of chained entries
+    private final boolean groupCommit;
+    private final DurabilityMode durabilityMode;
+    private final long syncInterval; // ms, for SYNC_PERIODIC only
+    private final boolean mmapWrite; // preallocate active data file and append through memory mapped buffer
+    private final int asyncWriteQueueSize; // ring buffer size of async writes, 0 = async writes are executed synchronously
+    private final int writePartitions; // number of write partitions (by key hash), each has its own active files and write lock
+    private final boolean mmapRead; // serve reads of sealed data files from read only memory mapped buffers
+    private final long valueCacheSize; // bytes of off-heap value cache, 0 = disabled
+    private final int valueCacheMaxValueSize; // larger values are not cached
+    private final int tailBufferSize; // bytes of the most recent region of active data file kept in memory for reads, 0 = disabled
+    private final int numberOfReadThread; // threads reading different files of a multiGet in parallel, 0 = read in calling thread
 
     public static class Builder {
         void validate(boolean condition, String message) {
@@ -28,11 +41,32 @@ public class PhantomDBOptions {
 
         public PhantomDBOptions build() {
             validate(maxKeySize > 0, "maxKeySize > 0");
+            validate(maxKeySize <= Byte.MAX_VALUE, "maxKeySize <= 127"); // key size is a byte in record header
             validate(dataFlushThreshold > 0, "dataFlushThreshold > 0");
             validate(maxFileSize > 0, "maxFileSize > 0");
             validate(maxTombstoneFileSize > 0, "maxTombstoneFileSize > 0");
             validate(numberOfIndexingThread > 0, "numberOfIndexingThread > 0");
             validate(compactionThreshold >= 0.0 && compactionThreshold <= 1.0, "compactionThreshold in interval(0,1)");
+            if (durabilityMode == null) {
+                durabilityMode = DurabilityMode.FLUSH_THRESHOLD;
+            }
+            if (durabilityMode == DurabilityMode.SYNC_PERIODIC) {
+                validate(syncInterval > 0, "syncInterval > 0");
+            }
+            validate(asyncWriteQueueSize >= 0, "asyncWriteQueueSize >= 0");
+            if (writePartitions == 0) {
+                writePartitions = 1;
+            }
+            validate(writePartitions > 0, "writePartitions > 0");
+            validate(valueCacheSize >= 0, "valueCacheSize >= 0");
+            if (valueCacheSize > 0) {
+                if (valueCacheMaxValueSize == 0) {
+                    valueCacheMaxValueSize = 1024;
+                }
+                validate(valueCacheMaxValueSize > 0, "valueCacheMaxValueSize > 0");
+            }
+            validate(tailBufferSize >= 0, "tailBufferSize >= 0");
+            validate(numberOfReadThread >= 0, "numberOfReadThread >= 0");
             if (offHeapHashTable) {
                 validate(estimatedMaxKeyCount > 0, "estimatedMaxKeyCount > 0");
                 validate(memoryChunkSize > 0, "memoryChunkSize > 0");
@@ -45,8 +79,21 @@ public class PhantomDBOptions {
                     numberOfIndexingThread,
                     compactionThreshold,
                     offHeapHashTable,
+                    compactOnHeapIndex,
                     estimatedMaxKeyCount,
-                    memoryChunkSize
+                    memoryChunkSize,
+                    openAddressingHashTable,
+                    groupCommit,
+                    durabilityMode,
+                    syncInterval,
+                    mmapWrite,
+                    asyncWriteQueueSize,
+                    writePartitions,
+                    mmapRead,
+                    valueCacheSize,
+                    valueCacheMaxValueSize,
+                    tailBufferSize,
+                    numberOfReadThread
             );
         }
     }
@@ -5,8 +5,10 @@ import lombok.NoArgsConstructor;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class Versions {
-    public static final byte DATA_FILE_VERSION = (byte) 0xF1;
+    public static final byte DATA_FILE_VERSION = (byte) 0xF2;
+    public static final byte LEGACY_DATA_FILE_VERSION = (byte) 0xF1; // records without flags, upgraded on open
     public static final byte INDEX_FILE_VERSION = (byte) 0x34;
     public static final byte TOMBSTONE_FILE_VERSION = (byte) 0x75;
-    public static final byte METADATA_FILE_VERSION = (byte) 0x1d;
+    public static final byte METADATA_FILE_VERSION = (byte) 0x1e;
+    public static final byte LEGACY_METADATA_FILE_VERSION = (byte) 0x1d; // without write_partitions, upgraded on open
 }
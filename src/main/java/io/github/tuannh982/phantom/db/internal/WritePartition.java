@@ -0,0 +1,445 @@
+package io.github.tuannh982.phantom.db.internal;
+
+import io.github.tuannh982.phantom.commons.concurrent.RLock;
+import io.github.tuannh982.phantom.db.command.ModifyResult;
+import io.github.tuannh982.phantom.db.index.IndexMap;
+import io.github.tuannh982.phantom.db.index.IndexMetadata;
+import io.github.tuannh982.phantom.db.internal.commit.WriteRequest;
+import io.github.tuannh982.phantom.db.internal.file.DBFile;
+import io.github.tuannh982.phantom.db.internal.file.Record;
+import io.github.tuannh982.phantom.db.internal.file.TombstoneFile;
+import io.github.tuannh982.phantom.db.internal.file.TombstoneFileEntry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*
+a write partition owns its active data file, active tombstone file, write lock and group commit queue, keys are routed
+to partitions by hash. all partitions share the sequence number, the file id generator, the data file map and the index.
+files created by partition p have file_id % (partitions + 1) == p (the last class is used by the other files), so the
+active files of every partition could be found on repair
+ */
+@Slf4j
+public class WritePartition implements Closeable {
+    public static final int MAX_GROUP_COMMIT_SIZE = 1024;
+    private static final ByteBuffer EMPTY_VALUE = ByteBuffer.allocate(0);
+
+    @Getter
+    private final int partitionId;
+    private final PhantomDBInternal dbInternal;
+    private final DBDirectory dbDirectory;
+    private final PhantomDBOptions options;
+    private final IndexMap indexMap;
+    // files (volatile, also read by syncer and by other partitions)
+    private volatile DBFile currentDBFile;
+    private volatile TombstoneFile currentTombstoneFile;
+    private boolean currentDBFileWillBeCompactedLater = false; // guarded by this
+    // standby files, created (and directory synced) in background, so rollover is just a swap
+    private Future<DBFile> standbyDBFile;
+    private Future<TombstoneFile> standbyTombstoneFile;
+    // lock
+    @Getter
+    private final RLock writeLock = new RLock();
+    // group commit
+    private final Queue<WriteRequest> writeQueue = new ConcurrentLinkedQueue<>();
+
+    public WritePartition(int partitionId, PhantomDBInternal dbInternal, DBDirectory dbDirectory, PhantomDBOptions options, IndexMap indexMap) {
+        this.partitionId = partitionId;
+        this.dbInternal = dbInternal;
+        this.dbDirectory = dbDirectory;
+        this.options = options;
+        this.indexMap = indexMap;
+    }
+
+    public static int fileClassCount(int writePartitions) {
+        return writePartitions == 1 ? 1 : writePartitions + 1;
+    }
+
+    public static int fileClass(int fileId, int writePartitions) {
+        return fileId % fileClassCount(writePartitions);
+    }
+
+    // file class of files not created by any partition
+    public static int sharedFileClass(int writePartitions) {
+        return fileClassCount(writePartitions) - 1;
+    }
+
+    public ModifyResult submit(WriteRequest request) throws IOException {
+        if (!options.isGroupCommit()) {
+            boolean rlock = writeLock.lock();
+            try {
+                commit(Collections.singletonList(request), false);
+            } finally {
+                writeLock.release(rlock);
+            }
+            return request.get();
+        }
+        /*
+        group commit: enqueue the request, then whoever holds the write lock (the leader) drains the queue and
+        commits all pending requests together, so when a waiting writer finally gets the lock, its request is
+        most likely already committed by the previous leader
+         */
+        writeQueue.offer(request);
+        if (!request.isDone()) {
+            boolean rlock = writeLock.lock();
+            try {
+                while (!request.isDone()) { // done also if failed
+                    List<WriteRequest> group = new ArrayList<>();
+                    WriteRequest pending;
+                    while (group.size() < MAX_GROUP_COMMIT_SIZE && (pending = writeQueue.poll()) != null) {
+                        group.add(pending);
+                    }
+                    if (group.isEmpty()) { // never happen (request is either queued or committed), just for sure
+                        request.fail(new IOException("write request is lost"));
+                        break;
+                    }
+                    commit(group, false);
+                }
+            } finally {
+                writeLock.release(rlock);
+            }
+        }
+        return request.get();
+    }
+
+    public void commitGroup(List<WriteRequest> group) {
+        boolean rlock = writeLock.lock();
+        try {
+            commit(group, false);
+        } finally {
+            writeLock.release(rlock);
+        }
+    }
+
+    /*
+    must be called with write lock held (atomic group: write locks of all partitions of its keys).
+    records of the whole group are staged and written with one gathered write per file (unless a rollover happens
+    in the middle of the group), index is updated only after the records were written.
+    atomic group never rollover in the middle: deletes are also written to data file as tombstone records, and the
+    last record of the group is flagged as batch end, so the data file write is the single commit point
+     */
+    @SuppressWarnings("java:S3776")
+    public void commit(List<WriteRequest> group, boolean atomic) {
+        // index changes staged by the group, so later requests in the same group can see them (null = deleted)
+        Map<ByteBuffer, IndexMetadata> stagedIndex = group.size() > 1 ? new HashMap<>() : null;
+        int writtenCount = 0;
+        try {
+            boolean batchStaged = false;
+            if (atomic) {
+                prepareAtomicCommit(group);
+            }
+            for (int i = 0; i < group.size(); i++) {
+                WriteRequest request = group.get(i);
+                IndexMetadata existedMetadata = lookupForWrite(stagedIndex, request.getKey());
+                request.setExistedMetadata(existedMetadata);
+                if (!checkPrecondition(request, existedMetadata)) {
+                    continue;
+                }
+                long toBeWrittenSequenceNumber = dbInternal.nextSequenceNumber();
+                IndexMetadata newMetadata = null;
+                byte[] key = request.getKey();
+                if (atomic) {
+                    if (request.isDelete()) {
+                        currentTombstoneFile.stageEntry(key, toBeWrittenSequenceNumber);
+                        newMetadata = currentDBFile.stageRecord(key, EMPTY_VALUE, toBeWrittenSequenceNumber, (byte) (Record.FLAG_BATCH | Record.FLAG_TOMBSTONE));
+                    } else {
+                        newMetadata = currentDBFile.stageRecord(key, request.getValue(), toBeWrittenSequenceNumber, Record.FLAG_BATCH);
+                    }
+                    batchStaged = true;
+                } else if (request.isDelete()) {
+                    int entrySize = TombstoneFileEntry.HEADER_SIZE + key.length;
+                    if (currentTombstoneFile == null || currentTombstoneFile.getWriteOffset() + currentTombstoneFile.getStagedSize() + entrySize > options.getMaxTombstoneFileSize()) {
+                        writeStaged(group, writtenCount, i);
+                        writtenCount = i;
+                        rolloverCurrentTombstoneFile(entrySize);
+                    }
+                    currentTombstoneFile.stageEntry(key, toBeWrittenSequenceNumber);
+                } else {
+                    int recordSize = Record.HEADER_SIZE + key.length + request.valueSize();
+                    if (currentDBFile == null || currentDBFile.getWriteOffset() + currentDBFile.getStagedSize() + recordSize > options.getMaxFileSize()) {
+                        writeStaged(group, writtenCount, i);
+                        writtenCount = i;
+                        rolloverCurrentDBFile(recordSize);
+                    }
+                    newMetadata = currentDBFile.stageRecord(key, request.getValue(), toBeWrittenSequenceNumber, (byte) 0);
+                }
+                request.setNewMetadata(newMetadata);
+                request.setResult(new ModifyResult(true, toBeWrittenSequenceNumber));
+                if (stagedIndex != null) {
+                    stagedIndex.put(ByteBuffer.wrap(request.getKey()), request.isDelete() ? null : newMetadata);
+                }
+            }
+            if (batchStaged) {
+                currentDBFile.addFlagsToLastStagedRecord(Record.FLAG_BATCH_END);
+            }
+            writeStaged(group, writtenCount, group.size());
+        } catch (IOException e) {
+            failPending(group, e);
+        } catch (RuntimeException | Error e) {
+            // every request of the group must be done, otherwise its writer (and the partition) waits forever
+            failPending(group, new IOException(e));
+            if (e instanceof Error) {
+                throw e;
+            }
+        }
+    }
+
+    private void failPending(List<WriteRequest> group, IOException e) {
+        if (currentDBFile != null) {
+            currentDBFile.discardStagedRecords();
+        }
+        if (currentTombstoneFile != null) {
+            currentTombstoneFile.discardStagedEntries();
+        }
+        for (WriteRequest request : group) {
+            if (!request.isDone()) {
+                request.fail(e);
+            }
+        }
+    }
+
+    // rollover both files up front, so the whole batch fits in current files
+    private void prepareAtomicCommit(List<WriteRequest> batch) throws IOException {
+        int dataSize = 0;
+        int tombstoneSize = 0;
+        for (WriteRequest request : batch) { // upper bound, requests may not pass their preconditions
+            if (request.getType() == WriteRequest.Type.UNSUPPORTED) {
+                continue;
+            }
+            if (request.isDelete()) {
+                dataSize += Record.HEADER_SIZE + request.getKey().length;
+                tombstoneSize += TombstoneFileEntry.HEADER_SIZE + request.getKey().length;
+            } else {
+                dataSize += Record.HEADER_SIZE + request.getKey().length + request.valueSize();
+            }
+        }
+        if (dataSize > options.getMaxFileSize() || tombstoneSize > options.getMaxTombstoneFileSize()) {
+            throw new IOException("write batch too large");
+        }
+        rolloverCurrentDBFile(dataSize);
+        if (tombstoneSize > 0) {
+            rolloverCurrentTombstoneFile(tombstoneSize);
+        }
+    }
+
+    private IndexMetadata lookupForWrite(Map<ByteBuffer, IndexMetadata> stagedIndex, byte[] key) throws IOException {
+        if (stagedIndex != null) {
+            ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+            if (stagedIndex.containsKey(wrappedKey)) {
+                return stagedIndex.get(wrappedKey);
+            }
+        }
+        return indexMap.get(key);
+    }
+
+    // set result and return false if request should not be written
+    private boolean checkPrecondition(WriteRequest request, IndexMetadata existedMetadata) {
+        switch (request.getType()) {
+            case PUT:
+                return true;
+            case PUT_IF_ABSENT:
+                if (existedMetadata != null) {
+                    request.setResult(new ModifyResult(false, existedMetadata.getSequenceNumber())); // already exists
+                    return false;
+                }
+                return true;
+            case REPLACE:
+            case DELETE:
+                if (existedMetadata == null) {
+                    request.setResult(ModifyResult.FAILED); // not exists
+                    return false;
+                }
+                return true;
+            case REPLACE_WITH_SEQUENCE_NUMBER_EQUALS:
+                if (existedMetadata == null) {
+                    request.setResult(ModifyResult.FAILED); // not exists
+                    return false;
+                } else if (existedMetadata.getSequenceNumber() != request.getExpectedSequenceNumber()) {
+                    request.setResult(new ModifyResult(false, existedMetadata.getSequenceNumber())); // sequence number not matched
+                    return false;
+                }
+                return true;
+            case UNSUPPORTED:
+                request.setResult(ModifyResult.FAILED);
+                return false;
+            case DELETE_WITH_SEQUENCE_NUMBER_EQUALS:
+                if (existedMetadata == null || existedMetadata.getSequenceNumber() != request.getExpectedSequenceNumber()) {
+                    request.setResult(ModifyResult.FAILED);
+                    return false;
+                }
+                return true;
+            default:
+                throw new IllegalStateException("unknown write request type " + request.getType());
+        }
+    }
+
+    // write all staged records/tombstones, then apply index changes of requests in [from, to)
+    private void writeStaged(List<WriteRequest> group, int from, int to) throws IOException {
+        boolean syncCommit = options.getDurabilityMode() == DurabilityMode.SYNC_COMMIT;
+        if (currentDBFile != null && currentDBFile.getStagedSize() > 0) {
+            currentDBFile.writeStagedRecords();
+            if (syncCommit) {
+                currentDBFile.flush();
+            }
+        }
+        if (currentTombstoneFile != null && currentTombstoneFile.getStagedSize() > 0) {
+            currentTombstoneFile.writeStagedEntries();
+            if (syncCommit) {
+                currentTombstoneFile.flush();
+            }
+        }
+        for (int i = from; i < to; i++) {
+            WriteRequest request = group.get(i);
+            if (request.getResult().isSuccess()) {
+                if (request.isDelete()) {
+                    indexMap.delete(request.getKey());
+                    if (request.getNewMetadata() != null) { // tombstone record of write batch
+                        dbInternal.markDataAsStale(request.getKey(), request.getNewMetadata());
+                    }
+                } else {
+                    indexMap.put(request.getKey(), request.getNewMetadata());
+                }
+                // mark previous version as stale data
+                if (request.getExistedMetadata() != null) {
+                    dbInternal.markDataAsStale(request.getKey(), request.getExistedMetadata());
+                }
+            }
+            request.complete();
+        }
+    }
+
+    private void rolloverCurrentDBFile(int size) throws IOException {
+        if (currentDBFile == null) {
+            currentDBFile = nextDBFile();
+        } else if (currentDBFile.getWriteOffset() + size > options.getMaxFileSize()) {
+            DBFile previousDBFile = currentDBFile;
+            previousDBFile.flushToDisk();
+            DBFile newDBFile = nextDBFile();
+            boolean compactPrevious;
+            synchronized (this) {
+                compactPrevious = currentDBFileWillBeCompactedLater;
+                currentDBFileWillBeCompactedLater = false;
+                currentDBFile = newDBFile;
+            }
+            if (compactPrevious) {
+                dbInternal.getCompactionManager().queueForCompaction(previousDBFile);
+            }
+        }
+    }
+
+    private void rolloverCurrentTombstoneFile(int size) throws IOException {
+        if (currentTombstoneFile == null) {
+            currentTombstoneFile = nextTombstoneFile();
+        } else if (currentTombstoneFile.getWriteOffset() + size > options.getMaxTombstoneFileSize()) {
+            currentTombstoneFile.close();
+            dbInternal.associateTombstoneFile(currentTombstoneFile.getFileId());
+            currentTombstoneFile = nextTombstoneFile();
+        }
+    }
+
+    // take the standby file (or create one if it's not available), then prepare the next standby file
+    private DBFile nextDBFile() throws IOException {
+        DBFile file = takeStandby(standbyDBFile);
+        if (file == null) {
+            file = createDBFile();
+        }
+        dbInternal.registerDBFile(file);
+        standbyDBFile = dbInternal.getFileCreator().submit(this::createDBFile);
+        return file;
+    }
+
+    private TombstoneFile nextTombstoneFile() throws IOException {
+        TombstoneFile file = takeStandby(standbyTombstoneFile);
+        if (file == null) {
+            file = createTombstoneFile();
+        }
+        standbyTombstoneFile = dbInternal.getFileCreator().submit(this::createTombstoneFile);
+        return file;
+    }
+
+    private DBFile createDBFile() throws IOException {
+        DBFile file = DBFile.create(dbInternal.nextFileId(partitionId), dbDirectory, options, false);
+        dbDirectory.sync();
+        return file;
+    }
+
+    private TombstoneFile createTombstoneFile() throws IOException {
+        TombstoneFile file = TombstoneFile.create(dbInternal.nextFileId(partitionId), dbDirectory, options);
+        dbDirectory.sync();
+        return file;
+    }
+
+    // return null if the standby file was not created
+    private static <T> T takeStandby(Future<T> standby) throws IOException {
+        if (standby == null) {
+            return null;
+        }
+        try {
+            return standby.get();
+        } catch (ExecutionException e) {
+            log.warn("Fail to create standby file", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for standby file", e);
+        }
+    }
+
+    // return false if the file is not the active data file of this partition
+    public boolean compactLaterIfCurrent(int fileId) {
+        synchronized (this) {
+            DBFile dbFile = currentDBFile;
+            if (dbFile != null && dbFile.getFileId() == fileId) {
+                currentDBFileWillBeCompactedLater = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // called by syncer, without write lock
+    public void syncCurrentFiles() throws IOException {
+        DBFile dbFile = currentDBFile;
+        TombstoneFile tombstoneFile = currentTombstoneFile;
+        if (dbFile != null) {
+            try {
+                dbFile.flush();
+            } catch (ClosedChannelException ignored) { /*closed (and fsync-ed) by close()*/ }
+        }
+        if (tombstoneFile != null) {
+            try {
+                tombstoneFile.flush();
+            } catch (ClosedChannelException ignored) { /*closed (and fsync-ed) by rollover*/ }
+        }
+    }
+
+    // must be called with write lock held
+    @Override
+    public void close() throws IOException {
+        if (currentDBFile != null) {
+            currentDBFile.close();
+        }
+        if (currentTombstoneFile != null) {
+            currentTombstoneFile.close();
+        }
+        // standby files are never written, just delete them
+        DBFile dbFile = takeStandby(standbyDBFile);
+        if (dbFile != null) {
+            dbFile.close();
+            dbFile.delete();
+        }
+        TombstoneFile tombstoneFile = takeStandby(standbyTombstoneFile);
+        if (tombstoneFile != null) {
+            tombstoneFile.close();
+            tombstoneFile.delete();
+        }
+    }
+}
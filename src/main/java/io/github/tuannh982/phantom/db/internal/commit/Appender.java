@@ -0,0 +1,139 @@
+package io.github.tuannh982.phantom.db.internal.commit;
+
+import io.github.tuannh982.phantom.db.command.ModifyResult;
+import io.github.tuannh982.phantom.db.internal.PhantomDBInternal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * single writer of async writes: callers only enqueue into a bounded ring buffer, the appender thread drains it,
+ * commits pending requests in groups, then completes their futures
+ */
+@Slf4j
+public class Appender implements Closeable {
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<WriteRequest> queue;
+    private final int maxGroupSize;
+    private PhantomDBInternal dbInternal;
+    // task
+    private Thread appenderThread;
+    // state
+    private volatile boolean started = false;
+    private volatile boolean closed = false;
+
+    public Appender(int queueSize, int maxGroupSize) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    public synchronized void start(PhantomDBInternal dbInternal) {
+        if (started) {
+            log.warn("Appender already started");
+            return;
+        }
+        if (closed) {
+            log.warn("Appender already closed");
+            return;
+        }
+        this.dbInternal = dbInternal;
+        started = true;
+        appenderThread = new AppenderThread();
+        appenderThread.start();
+    }
+
+    // block while the ring buffer is full (backpressure), until enqueued or closed
+    public CompletableFuture<ModifyResult> submit(WriteRequest request) {
+        CompletableFuture<ModifyResult> future = request.future();
+        try {
+            while (true) {
+                if (closed) {
+                    future.completeExceptionally(new IOException("DB closed"));
+                    return future;
+                }
+                if (queue.offer(request, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new IOException("interrupted while enqueueing write", e));
+            return future;
+        }
+        // enqueued after close() drained the queue, nobody else would complete it
+        if (closed && queue.remove(request)) {
+            future.completeExceptionally(new IOException("DB closed"));
+        }
+        return future;
+    }
+
+    // stop accepting writes, commit all pending ones, then stop appender thread
+    @SuppressWarnings("java:S2142")
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (started) {
+                started = false;
+                try {
+                    appenderThread.join();
+                } catch (InterruptedException e) {
+                    log.error("Error while stopping appender thread", e);
+                }
+            }
+            // enqueued after appender thread stopped
+            WriteRequest request;
+            while ((request = queue.poll()) != null) {
+                request.future().completeExceptionally(new IOException("DB closed"));
+            }
+        } else {
+            log.warn("Appender already closed");
+        }
+    }
+
+    private class AppenderThread extends Thread {
+        public AppenderThread() {
+            setName("phantom-appender");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<WriteRequest> group = new ArrayList<>(maxGroupSize);
+            while (true) {
+                try {
+                    WriteRequest first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (!started) { // closed and drained
+                            return;
+                        }
+                        continue;
+                    }
+                    group.add(first);
+                    queue.drainTo(group, maxGroupSize - 1);
+                    dbInternal.commitGroup(group);
+                    for (WriteRequest request : group) {
+                        request.completeFuture();
+                    }
+                } catch (InterruptedException e) {
+                    log.warn("Appender thread interrupted");
+                } catch (RuntimeException e) {
+                    log.error("Appender thread failed to commit", e);
+                    for (WriteRequest request : group) {
+                        request.future().completeExceptionally(e);
+                    }
+                } finally {
+                    group.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.tuannh982.phantom.db.internal.commit;
+
+import io.github.tuannh982.phantom.db.command.ModifyResult;
+import io.github.tuannh982.phantom.db.index.IndexMetadata;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+@Getter
+public class WriteRequest {
+    public enum Type {
+        PUT,
+        PUT_IF_ABSENT,
+        REPLACE,
+        REPLACE_WITH_SEQUENCE_NUMBER_EQUALS,
+        DELETE,
+        DELETE_WITH_SEQUENCE_NUMBER_EQUALS,
+        UNSUPPORTED, // unsupported write policy combination, always failed
+    }
+
+    private final Type type;
+    private final byte[] key;
+    private final ByteBuffer value; // [position, limit), position is never changed
+    private final long expectedSequenceNumber;
+    // filled by the committer
+    @Setter
+    private IndexMetadata existedMetadata;
+    @Setter
+    private IndexMetadata newMetadata;
+    @Setter
+    private ModifyResult result;
+    private IOException exception;
+    private volatile boolean done = false;
+    // async write only
+    @Getter(AccessLevel.NONE)
+    private CompletableFuture<ModifyResult> future;
+
+    private WriteRequest(Type type, byte[] key, ByteBuffer value, long expectedSequenceNumber) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.expectedSequenceNumber = expectedSequenceNumber;
+    }
+
+    public static WriteRequest put(byte[] key, byte[] value) {
+        return put(key, ByteBuffer.wrap(value));
+    }
+
+    public static WriteRequest put(byte[] key, ByteBuffer value) {
+        return new WriteRequest(Type.PUT, key, value, -1);
+    }
+
+    public static WriteRequest putIfAbsent(byte[] key, byte[] value) {
+        return putIfAbsent(key, ByteBuffer.wrap(value));
+    }
+
+    public static WriteRequest putIfAbsent(byte[] key, ByteBuffer value) {
+        return new WriteRequest(Type.PUT_IF_ABSENT, key, value, -1);
+    }
+
+    public static WriteRequest replace(byte[] key, byte[] value) {
+        return replace(key, ByteBuffer.wrap(value));
+    }
+
+    public static WriteRequest replace(byte[] key, ByteBuffer value) {
+        return new WriteRequest(Type.REPLACE, key, value, -1);
+    }
+
+    public static WriteRequest replaceWithSequenceNumberEquals(byte[] key, byte[] value, long sequenceNumber) {
+        return replaceWithSequenceNumberEquals(key, ByteBuffer.wrap(value), sequenceNumber);
+    }
+
+    public static WriteRequest replaceWithSequenceNumberEquals(byte[] key, ByteBuffer value, long sequenceNumber) {
+        return new WriteRequest(Type.REPLACE_WITH_SEQUENCE_NUMBER_EQUALS, key, value, sequenceNumber);
+    }
+
+    public static WriteRequest delete(byte[] key) {
+        return new WriteRequest(Type.DELETE, key, null, -1);
+    }
+
+    public static WriteRequest deleteWithSequenceNumberEquals(byte[] key, long sequenceNumber) {
+        return new WriteRequest(Type.DELETE_WITH_SEQUENCE_NUMBER_EQUALS, key, null, sequenceNumber);
+    }
+
+    public static WriteRequest unsupported(byte[] key) {
+        return new WriteRequest(Type.UNSUPPORTED, key, null, -1);
+    }
+
+    public int valueSize() {
+        return value == null ? 0 : value.remaining();
+    }
+
+    public boolean isDelete() {
+        return type == Type.DELETE || type == Type.DELETE_WITH_SEQUENCE_NUMBER_EQUALS;
+    }
+
+    public void complete() {
+        done = true;
+    }
+
+    public void fail(IOException e) {
+        exception = e;
+        done = true;
+    }
+
+    public CompletableFuture<ModifyResult> future() {
+        if (future == null) {
+            future = new CompletableFuture<>();
+        }
+        return future;
+    }
+
+    // must only be called after done
+    public void completeFuture() {
+        if (exception != null) {
+            future().completeExceptionally(new IOException(exception.getMessage(), exception));
+        } else {
+            future().complete(result);
+        }
+    }
+
+    // must only be called after done
+    public ModifyResult get() throws IOException {
+        if (exception != null) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+        return result;
+    }
+}
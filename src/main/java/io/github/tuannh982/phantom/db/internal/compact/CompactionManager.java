@@ -122,18 +122,15 @@ public class CompactionManager implements Closeable {
                 IndexMetadata indexMetadata = dbInternal.getIndexMap().get(key);
                 if (isFresh(indexMetadata, fileId, valueOffset, valueSize, sequenceNumber)) {
                     rolloverCurrentDBFile(recordSize);
-                    int newRecordOffset = currentWriteOffset;
                     // direct record data transfer (faster than just read record)
-                    long transferred = toBeCompactedFileChannel.transferTo(recordOffset, recordSize, currentDBFile.getChannel());
-                    unflushed += transferred;
+                    int newRecordOffset = currentDBFile.transferFrom(toBeCompactedFileChannel, recordOffset, recordSize);
+                    unflushed += recordSize;
                     if (unflushed > options.getDataFlushThreshold()) {
                         currentDBFile.flush();
                         unflushed = 0;
                     }
                     // craft new index entry since the record offset changed
-                    IndexFileEntry newIndexEntry = new IndexFileEntry(key, newRecordOffset, recordSize);
-                    newIndexEntry.getHeader().setSequenceNumber(sequenceNumber);
-                    currentDBFile.getIndexFile().write(newIndexEntry);
+                    currentDBFile.getIndexFile().write(key, newRecordOffset, recordSize, sequenceNumber);
                     // craft new index metadata
                     int newValueOffset = newRecordOffset + Record.HEADER_SIZE + key.length;
                     IndexMetadata newIndexMetadata = new IndexMetadata(currentDBFile.getFileId(), newValueOffset, valueSize, sequenceNumber);
@@ -1,21 +1,32 @@
 package io.github.tuannh982.phantom.db.internal.file;
 
 import io.github.tuannh982.phantom.commons.io.FileUtils;
+import io.github.tuannh982.phantom.commons.io.GrowableBuffer;
+import io.github.tuannh982.phantom.commons.io.SharedMappedBuffer;
+import io.github.tuannh982.phantom.commons.io.TailBuffer;
 import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
 import io.github.tuannh982.phantom.db.index.IndexMetadata;
 import io.github.tuannh982.phantom.db.internal.DBDirectory;
+import io.github.tuannh982.phantom.db.internal.DurabilityMode;
 import io.github.tuannh982.phantom.db.internal.PhantomDBOptions;
+import io.github.tuannh982.phantom.db.internal.Versions;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
@@ -26,6 +37,7 @@ public class DBFile implements Closeable {
     private static final String DATA_FILE_EXTENSION = ".data";
     private static final String COMPACT_FILE_EXTENSION = ".datac";
     private static final String REPAIR_FILE_EXTENSION = ".repair";
+    private static final int STAGING_BUFFER_INITIAL_SIZE = 64 * 1024;
 
     private final int fileId;
     private final DBDirectory dbDirectory;
@@ -38,6 +50,26 @@ public class DBFile implements Closeable {
     //
     private int unflushed = 0;
     private int writeOffset = 0;
+    // preallocated & mapped active file (mmapWrite), null after closeForWrite()
+    @Getter(AccessLevel.NONE)
+    private volatile MappedByteBuffer mappedBuffer;
+    // staged records, encoded once into a reusable direct buffer (written together in one write)
+    @Getter(AccessLevel.NONE)
+    private final CRC32 crc32 = new CRC32();
+    @Getter(AccessLevel.NONE)
+    private GrowableBuffer stagingBuffer; // lazy, released by closeForWrite()
+    @Getter(AccessLevel.NONE)
+    private int lastStagedRecordOffset = -1;
+    // copy of the most recent written region of active file (tailBufferSize), released by closeForWrite()
+    @Getter(AccessLevel.NONE)
+    private volatile TailBuffer tailBuffer;
+    // read only mapping of sealed file (mmapRead), lazy, released by delete() or close()
+    @Getter(AccessLevel.NONE)
+    private volatile boolean sealed = false;
+    @Getter(AccessLevel.NONE)
+    private volatile SharedMappedBuffer readBuffer;
+    @Getter(AccessLevel.NONE)
+    private boolean readBufferReleased = false; // guarded by this
 
     private DBFile(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, boolean compacted, File file, IndexFile indexFile, FileChannel channel) throws IOException {
         this.fileId = fileId;
@@ -58,8 +90,17 @@ public class DBFile implements Closeable {
         return file.toPath();
     }
 
-    @SuppressWarnings("java:S2095")
     public static DBFile create(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, boolean compacted) throws IOException {
+        return create(fileId, dbDirectory, dbOptions, compacted, true);
+    }
+
+    // output file of compaction, written by transferFrom(), so it's never mapped and has no tail buffer
+    public static DBFile createForCompaction(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions) throws IOException {
+        return create(fileId, dbDirectory, dbOptions, false, false);
+    }
+
+    @SuppressWarnings("java:S2095")
+    private static DBFile create(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, boolean compacted, boolean appendable) throws IOException {
         String fileExtension = compacted ? COMPACT_FILE_EXTENSION : DATA_FILE_EXTENSION;
         File file = dbDirectory.path().resolve(fileId + fileExtension).toFile();
         while (!file.createNewFile()) {
@@ -68,7 +109,15 @@ public class DBFile implements Closeable {
         }
         FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
         IndexFile indexFile = IndexFile.create(fileId, dbDirectory, dbOptions);
-        return new DBFile(fileId, dbDirectory, dbOptions, compacted, file, indexFile, channel);
+        DBFile dbFile = new DBFile(fileId, dbDirectory, dbOptions, compacted, file, indexFile, channel);
+        if (appendable && !compacted && dbOptions.isMmapWrite()) {
+            // mapping extends the file to maxFileSize, tail will be zero-filled until written
+            dbFile.mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, dbOptions.getMaxFileSize());
+        }
+        if (appendable && !compacted && dbOptions.getTailBufferSize() > 0) {
+            dbFile.tailBuffer = new TailBuffer(dbOptions.getTailBufferSize(), dbFile.writeOffset);
+        }
+        return dbFile;
     }
 
     @SuppressWarnings("java:S2095")
@@ -77,18 +126,48 @@ public class DBFile implements Closeable {
         File file = dbDirectory.path().resolve(fileId + fileExtension).toFile();
         FileChannel channel = new RandomAccessFile(file, "r").getChannel();
         IndexFile indexFile = IndexFile.open(fileId, dbDirectory, dbOptions);
-        return new DBFile(fileId, dbDirectory, dbOptions, compacted, file, indexFile, channel);
+        DBFile dbFile = new DBFile(fileId, dbDirectory, dbOptions, compacted, file, indexFile, channel);
+        dbFile.sealed = true;
+        return dbFile;
+    }
+
+    // format version of the file (version of its first record), 0 if the file is empty
+    public byte version() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        if (FileUtils.read(channel, 0, buffer) < 1) {
+            return 0;
+        }
+        return buffer.get(0);
     }
 
     public DBFile repairAndOpenForRead() throws IOException {
         DBFile repairFile = createRepairFile(fileId, dbDirectory, dbOptions, compacted);
         Iterator<Record> iterator = iterator();
+        List<Record> batch = new ArrayList<>();
         while (iterator.hasNext()) {
             Record entry = iterator.next();
             if (entry == null) { // no need to verify checksum
                 break;
             }
-            repairFile.writeRecord(entry);
+            if (compacted || !entry.isBatch()) { // compaction only copies records, batch flags are meaningless there
+                if (!batch.isEmpty()) {
+                    log.warn("drop {} record(s) of partially written write batch", batch.size());
+                    batch.clear();
+                }
+                repairFile.writeRecord(entry);
+            } else {
+                batch.add(entry);
+                if (entry.isBatchEnd()) {
+                    for (Record batchEntry : batch) {
+                        repairFile.stageRecord(batchEntry);
+                    }
+                    repairFile.writeStagedRecords();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            log.warn("drop {} record(s) of partially written write batch", batch.size());
         }
         repairFile.close();
         close();
@@ -98,6 +177,36 @@ public class DBFile implements Closeable {
         return openForRead(fileId, dbDirectory, dbOptions, compacted);
     }
 
+    /*
+    rewrite records of legacy version (0xF1) in current layout, like repair (corrupted tail is dropped).
+    index file is rewritten too, since record offsets are shifted by the flags byte. index file is moved first:
+    until data file is moved, it's still of legacy version, so an interrupted upgrade is redone on next open
+     */
+    public DBFile upgradeAndOpenForRead() throws IOException {
+        DBFile upgradeFile = createRepairFile(fileId, dbDirectory, dbOptions, compacted);
+        Iterator<Record> iterator = new DBFileIterator(true);
+        int recordCount = 0;
+        while (iterator.hasNext()) {
+            Record entry = iterator.next();
+            if (entry == null) {
+                break;
+            }
+            if ((long) upgradeFile.getWriteOffset() + entry.serializedSize() > Integer.MAX_VALUE) {
+                upgradeFile.close();
+                throw new IOException("could not upgrade " + file.getName() + ", upgraded file would exceed 2GB");
+            }
+            upgradeFile.writeRecord(entry);
+            recordCount++;
+        }
+        upgradeFile.close();
+        close();
+        Files.move(upgradeFile.indexFile.path(), indexFile.path(), REPLACE_EXISTING, ATOMIC_MOVE);
+        Files.move(upgradeFile.path(), path(), REPLACE_EXISTING, ATOMIC_MOVE);
+        dbDirectory.sync();
+        log.info("{} record(s) of {} upgraded", recordCount, file.getName());
+        return openForRead(fileId, dbDirectory, dbOptions, compacted);
+    }
+
     @SuppressWarnings({"java:S2095", "java:S4042", "java:S899", "ResultOfMethodCallIgnored"})
     public static DBFile createRepairFile(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, boolean compacted) throws IOException {
         String fileExtension = compacted ? COMPACT_FILE_EXTENSION : DATA_FILE_EXTENSION;
@@ -111,7 +220,29 @@ public class DBFile implements Closeable {
         return new DBFile(fileId, dbDirectory, dbOptions, compacted, file, indexFile, channel);
     }
 
+    // release write buffers, unmap and truncate the preallocated file to its real size
+    public synchronized void closeForWrite() throws IOException {
+        if (stagingBuffer != null) {
+            stagingBuffer.close();
+            stagingBuffer = null;
+        }
+        indexFile.closeForWrite();
+        if (tailBuffer != null) {
+            tailBuffer.close();
+            tailBuffer = null;
+        }
+        MappedByteBuffer buffer = mappedBuffer;
+        if (buffer != null) {
+            buffer.force();
+            mappedBuffer = null;
+            UnsafeWrapper.unmap(buffer);
+            channel.truncate(writeOffset);
+        }
+        sealed = true;
+    }
+
     public void flushToDisk() throws IOException {
+        closeForWrite();
         if (channel != null && channel.isOpen()) {
             channel.force(true);
         }
@@ -119,6 +250,14 @@ public class DBFile implements Closeable {
     }
 
     public void flush() throws IOException {
+        if (mappedBuffer != null) {
+            synchronized (this) { // might be called by syncer while being unmapped
+                MappedByteBuffer buffer = mappedBuffer;
+                if (buffer != null) {
+                    buffer.force();
+                }
+            }
+        }
         if (channel != null && channel.isOpen()) {
             channel.force(false); // no need to write metadata
         }
@@ -126,6 +265,7 @@ public class DBFile implements Closeable {
 
     @SuppressWarnings({"java:S4042", "java:S899"})
     public void delete() {
+        releaseReadBuffer();
         if (file != null) {
             boolean b = file.delete();
             if (!b) {
@@ -139,7 +279,9 @@ public class DBFile implements Closeable {
 
     @Override
     public void close() throws IOException {
+        releaseReadBuffer();
         if (channel != null && channel.isOpen()) {
+            closeForWrite();
             channel.force(true);
             channel.close();
         }
@@ -149,31 +291,162 @@ public class DBFile implements Closeable {
     }
 
     public IndexMetadata writeRecord(Record entry) throws IOException {
-        int recordOffset = writeOffset;
-        write(entry);
-        IndexFileEntry indexFileEntry = new IndexFileEntry(
-                entry.getKey(),
-                recordOffset,
-                entry.getRecordSize()
-        );
-        indexFileEntry.getHeader().setSequenceNumber(entry.getHeader().getSequenceNumber());
-        indexFile.write(indexFileEntry);
-        int valueOffset = entry.valueOffset(recordOffset);
-        return new IndexMetadata(
-                fileId,
-                valueOffset,
-                entry.getHeader().getValueSize(),
-                entry.getHeader().getSequenceNumber()
-        );
+        IndexMetadata indexMetadata = stageRecord(entry);
+        writeStagedRecords();
+        return indexMetadata;
+    }
+
+    public IndexMetadata stageRecord(Record entry) {
+        Record.Header header = entry.getHeader();
+        return stageRecord(entry.getKey(), entry.getValue(), header.getSequenceNumber(), header.getFlags());
+    }
+
+    // stage record to be written by writeStagedRecords(), return the index metadata the record will have once written
+    public IndexMetadata stageRecord(byte[] key, byte[] value, long sequenceNumber, byte flags) {
+        return stageRecord(key, ByteBuffer.wrap(value), sequenceNumber, flags);
+    }
+
+    // value [position, limit) is staged, its position is not changed
+    public IndexMetadata stageRecord(byte[] key, ByteBuffer value, long sequenceNumber, byte flags) {
+        if (stagingBuffer == null) {
+            stagingBuffer = new GrowableBuffer(STAGING_BUFFER_INITIAL_SIZE);
+        }
+        int valueSize = value.remaining();
+        ByteBuffer buffer = stagingBuffer.ensureRemaining(Record.HEADER_SIZE + key.length + valueSize);
+        int stagedOffset = buffer.position();
+        int recordSize = Record.serialize(buffer, crc32, key, value, sequenceNumber, flags);
+        lastStagedRecordOffset = stagedOffset;
+        int recordOffset = writeOffset + stagedOffset;
+        if ((flags & Record.FLAG_TOMBSTONE) == 0) { // tombstones are not indexed
+            indexFile.stageEntry(key, recordOffset, recordSize, sequenceNumber);
+        }
+        return new IndexMetadata(fileId, recordOffset + Record.HEADER_SIZE + key.length, valueSize, sequenceNumber);
+    }
+
+    public void addFlagsToLastStagedRecord(byte flags) {
+        if (lastStagedRecordOffset >= 0) {
+            Record.addFlags(stagingBuffer.buffer(), lastStagedRecordOffset, crc32, flags);
+        }
+    }
+
+    public int getStagedSize() {
+        return stagingBuffer == null ? 0 : stagingBuffer.buffer().position();
+    }
+
+    public void writeStagedRecords() throws IOException {
+        if (getStagedSize() == 0) {
+            return;
+        }
+        ByteBuffer buffer = stagingBuffer.buffer();
+        try {
+            buffer.flip();
+            write(buffer);
+            indexFile.commitStagedEntries();
+        } finally {
+            buffer.clear();
+            lastStagedRecordOffset = -1;
+            indexFile.clearStagedEntries();
+        }
+    }
+
+    // copy [position, position + size) of src to the end of this file, return the offset it was copied to
+    public int transferFrom(FileChannel src, long position, int size) throws IOException {
+        if (mappedBuffer != null) {
+            throw new IllegalStateException("could not transfer to memory mapped file");
+        }
+        int offset = writeOffset;
+        long transferred = 0;
+        while (transferred < size) {
+            long n = src.transferTo(position + transferred, size - transferred, channel);
+            if (n <= 0) {
+                throw new IOException("unexpected end of source file");
+            }
+            transferred += n;
+        }
+        writeOffset += size;
+        return offset;
+    }
+
+    // drop staged records of a failed commit, so they are never written
+    public void discardStagedRecords() {
+        if (stagingBuffer != null) {
+            stagingBuffer.buffer().clear();
+        }
+        lastStagedRecordOffset = -1;
+        indexFile.clearStagedEntries();
     }
 
     public byte[] read(int offset, int len) throws IOException {
+        TailBuffer tail = tailBuffer;
+        byte[] tailValue = tail != null ? tail.read(offset, len) : null;
+        if (tailValue != null) {
+            return tailValue;
+        }
+        SharedMappedBuffer mapped = sealed && dbOptions.isMmapRead() ? readBuffer() : null;
+        if (mapped != null && offset + len <= mapped.capacity() && mapped.retain()) {
+            try {
+                byte[] value = new byte[len];
+                mapped.read(offset, value);
+                return value;
+            } finally {
+                mapped.release();
+            }
+        }
         ByteBuffer buffer = ByteBuffer.allocate(len);
         FileUtils.read(channel, offset, buffer);
         buffer.flip();
         return buffer.array();
     }
 
+    // read value into dst [position, position + len), dst position is advanced by len
+    public void read(int offset, int len, ByteBuffer dst) throws IOException {
+        TailBuffer tail = tailBuffer;
+        if (tail != null && tail.read(offset, len, dst)) {
+            return;
+        }
+        SharedMappedBuffer mapped = sealed && dbOptions.isMmapRead() ? readBuffer() : null;
+        if (mapped != null && offset + len <= mapped.capacity() && mapped.retain()) {
+            try {
+                mapped.read(offset, len, dst);
+                return;
+            } finally {
+                mapped.release();
+            }
+        }
+        int limit = dst.limit();
+        int end = dst.position() + len;
+        dst.limit(end);
+        try {
+            FileUtils.read(channel, offset, dst);
+        } finally {
+            dst.limit(limit);
+        }
+        dst.position(end);
+    }
+
+    private SharedMappedBuffer readBuffer() throws IOException {
+        SharedMappedBuffer mapped = readBuffer;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = readBuffer;
+                if (mapped == null && !readBufferReleased && channel.isOpen() && writeOffset > 0) {
+                    mapped = new SharedMappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, writeOffset));
+                    readBuffer = mapped;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    // unmapped once in-flight reads are done
+    private synchronized void releaseReadBuffer() {
+        readBufferReleased = true;
+        if (readBuffer != null) {
+            readBuffer.close();
+            readBuffer = null;
+        }
+    }
+
     @SuppressWarnings("java:S1854")
     public Record read(int offset) throws IOException {
         int currentOffset = offset;
@@ -189,36 +462,47 @@ public class DBFile implements Closeable {
         return entry;
     }
 
-    public void write(Record entry) throws IOException {
-        ByteBuffer[] buffers = entry.serialize();
-        long toBeWritten = 0;
-        for (ByteBuffer buffer : buffers) {
-            toBeWritten += buffer.remaining();
+    private void write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        if (tailBuffer != null) {
+            tailBuffer.append(writeOffset, src);
         }
-        long written = 0;
-        while (written < toBeWritten) {
-            written += channel.write(buffers);
+        MappedByteBuffer buffer = mappedBuffer;
+        if (buffer != null) {
+            if (writeOffset + written > buffer.capacity()) {
+                throw new IOException("record size exceeds maxFileSize");
+            }
+            buffer.position(writeOffset);
+            buffer.put(src);
+        } else {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
         }
         writeOffset += written;
         unflushed += written;
-        if (unflushed > dbOptions.getDataFlushThreshold()) {
+        DurabilityMode durabilityMode = dbOptions.getDurabilityMode();
+        if (durabilityMode == DurabilityMode.SYNC_WRITE ||
+                (durabilityMode == DurabilityMode.FLUSH_THRESHOLD && unflushed > dbOptions.getDataFlushThreshold())) {
             flush();
             unflushed = 0;
         }
     }
 
     public Iterator<Record> iterator() throws IOException {
-        return new DBFileIterator();
+        return new DBFileIterator(false);
     }
 
     private class DBFileIterator implements Iterator<Record> {
         private final FileChannel iterChannel;
         private final long channelSize;
+        private final boolean legacy; // read records of legacy version (to upgrade them)
         private long offset = 0;
 
-        public DBFileIterator() throws IOException {
+        public DBFileIterator(boolean legacy) throws IOException {
             iterChannel = FileChannel.open(path(), StandardOpenOption.READ);
             channelSize = iterChannel.size();
+            this.legacy = legacy;
         }
 
         @Override
@@ -230,23 +514,44 @@ public class DBFile implements Closeable {
         public Record next() {
             if (hasNext()) {
                 try {
-                    ByteBuffer headerBuffer = ByteBuffer.allocate(Record.HEADER_SIZE);
+                    ByteBuffer headerBuffer = ByteBuffer.allocate(legacy ? Record.LEGACY_HEADER_SIZE : Record.HEADER_SIZE);
                     // offset += FileUtils.read(iterChannel, offset, headerBuffer);
                     offset += iterChannel.read(headerBuffer);
-                    Record.Header header = Record.Header.deserialize(headerBuffer);
+                    if (headerBuffer.hasRemaining()) {
+                        throw new IOException("incomplete record header");
+                    }
+                    if (headerBuffer.get(Record.VERSION_OFFSET) == 0) { // zero-filled tail of preallocated file
+                        offset = channelSize;
+                        closeChannel();
+                        return null; // end of data
+                    }
+                    if (headerBuffer.get(Record.VERSION_OFFSET) != (legacy ? Versions.LEGACY_DATA_FILE_VERSION : Versions.DATA_FILE_VERSION)) {
+                        throw new IOException("unexpected record version"); // legacy files are upgraded on open, others are refused
+                    }
+                    Record.Header header = legacy ? Record.Header.deserializeLegacy(headerBuffer) : Record.Header.deserialize(headerBuffer);
+                    if (header.getKeySize() < 0 || header.getValueSize() < 0 || offset + header.getKeySize() + header.getValueSize() > channelSize) {
+                        throw new IOException("invalid record header");
+                    }
                     ByteBuffer dataBuffer = ByteBuffer.allocate(header.getKeySize() + header.getValueSize());
                     // offset += FileUtils.read(iterChannel, offset, dataBuffer);
                     offset += iterChannel.read(dataBuffer);
                     Record entry = Record.deserialize(dataBuffer, header);
-                    if (!entry.verifyChecksum()) {
+                    if (!(legacy ? entry.verifyLegacyChecksum(headerBuffer) : entry.verifyChecksum())) {
                         throw new IOException("checksum failed");
                     }
                     return entry;
                 } catch (IOException e) {
-                    log.error("index file corrupted ", e);
+                    log.error("data file corrupted ", e);
                     offset = channelSize;
+                    closeChannel();
+                    return null; // corrupted
                 }
             }
+            closeChannel();
+            throw new NoSuchElementException();
+        }
+
+        private void closeChannel() {
             try {
                 if (iterChannel != null && iterChannel.isOpen()) {
                     iterChannel.close();
@@ -254,7 +559,6 @@ public class DBFile implements Closeable {
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
-            throw new NoSuchElementException();
         }
     }
 }
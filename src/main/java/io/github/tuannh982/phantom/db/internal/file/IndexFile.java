@@ -1,9 +1,12 @@
 package io.github.tuannh982.phantom.db.internal.file;
 
 import io.github.tuannh982.phantom.commons.io.FileUtils;
+import io.github.tuannh982.phantom.commons.io.GrowableBuffer;
 import io.github.tuannh982.phantom.commons.number.NumberUtils;
 import io.github.tuannh982.phantom.db.internal.DBDirectory;
+import io.github.tuannh982.phantom.db.internal.DurabilityMode;
 import io.github.tuannh982.phantom.db.internal.PhantomDBOptions;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -15,12 +18,15 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 
 @Slf4j
 @Getter
 public class IndexFile implements Closeable {
     private static final String INDEX_FILE_EXTENSION = ".index";
     private static final String INDEX_REPAIR_FILE_EXTENSION = ".index.repair";
+    private static final int STAGING_BUFFER_INITIAL_SIZE = 64 * 1024;
+    private static final int BUFFERED_FLUSH_SIZE = 32 * 1024;
 
     private final int fileId;
     private final DBDirectory dbDirectory;
@@ -31,6 +37,17 @@ public class IndexFile implements Closeable {
     //
     private int unflushed = 0;
     private int writeOffset = 0;
+    /*
+    entries are encoded once into a reusable direct buffer: [0, bufferedSize) are entries of written records, not yet
+    appended to the file (appended in large blocks, and on closeForWrite()), the rest are staged entries of records
+    being written. index of the latest data file is rebuilt from the data file on repair, so nothing is lost on crash
+     */
+    @Getter(AccessLevel.NONE)
+    private final CRC32 crc32 = new CRC32();
+    @Getter(AccessLevel.NONE)
+    private GrowableBuffer stagingBuffer; // lazy, released by closeForWrite()
+    @Getter(AccessLevel.NONE)
+    private int bufferedSize = 0;
 
     private IndexFile(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, File file, FileChannel channel) throws IOException {
         this.fileId = fileId;
@@ -106,25 +123,79 @@ public class IndexFile implements Closeable {
 
     @Override
     public void close() throws IOException {
+        closeForWrite();
         if (channel != null && channel.isOpen()) {
             channel.force(true);
             channel.close();
         }
     }
 
-    public void write(IndexFileEntry entry) throws IOException {
-        ByteBuffer[] buffers = entry.serialize();
-        long toBeWritten = 0;
-        for (ByteBuffer buffer : buffers) {
-            toBeWritten += buffer.remaining();
+    // append buffered entries, then release write buffer
+    public void closeForWrite() throws IOException {
+        if (stagingBuffer != null) {
+            writeBufferedEntries();
+            stagingBuffer.close();
+            stagingBuffer = null;
         }
-        long written = 0;
-        while (written < toBeWritten) {
-            written += channel.write(buffers);
+    }
+
+    public void write(byte[] key, int recordOffset, int recordSize, long sequenceNumber) throws IOException {
+        stageEntry(key, recordOffset, recordSize, sequenceNumber);
+        commitStagedEntries();
+    }
+
+    // stage entry of a record being written, to be committed by commitStagedEntries() once the record was written
+    public void stageEntry(byte[] key, int recordOffset, int recordSize, long sequenceNumber) {
+        if (stagingBuffer == null) {
+            stagingBuffer = new GrowableBuffer(STAGING_BUFFER_INITIAL_SIZE);
+        }
+        ByteBuffer buffer = stagingBuffer.ensureRemaining(IndexFileEntry.HEADER_SIZE + key.length);
+        IndexFileEntry.serialize(buffer, crc32, key, recordOffset, recordSize, sequenceNumber);
+    }
+
+    public void commitStagedEntries() throws IOException {
+        if (stagingBuffer == null) {
+            return;
+        }
+        bufferedSize = stagingBuffer.buffer().position();
+        if (bufferedSize >= BUFFERED_FLUSH_SIZE) {
+            writeBufferedEntries();
+        }
+    }
+
+    // drop entries staged after last commit (e.g. record write failed)
+    public void clearStagedEntries() {
+        if (stagingBuffer != null) {
+            stagingBuffer.buffer().position(bufferedSize);
+        }
+    }
+
+    public void writeBufferedEntries() throws IOException {
+        if (bufferedSize == 0) {
+            return;
+        }
+        ByteBuffer buffer = stagingBuffer.buffer();
+        int stagedEnd = buffer.position();
+        buffer.position(0);
+        buffer.limit(bufferedSize);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            buffer.limit(buffer.capacity());
+            buffer.position(stagedEnd);
+            throw e;
         }
+        // keep staged entries (if any)
+        buffer.limit(stagedEnd);
+        buffer.compact();
+        int written = bufferedSize;
+        bufferedSize = 0;
         writeOffset += written;
         unflushed += written;
-        if (unflushed > dbOptions.getDataFlushThreshold()) {
+        // index file of the latest data file is rebuilt on repair, so only fsync it in FLUSH_THRESHOLD mode
+        if (dbOptions.getDurabilityMode() == DurabilityMode.FLUSH_THRESHOLD && unflushed > dbOptions.getDataFlushThreshold()) {
             flush();
             unflushed = 0;
         }
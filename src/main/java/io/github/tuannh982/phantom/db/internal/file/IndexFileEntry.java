@@ -46,10 +46,29 @@ public class IndexFileEntry {
         return checksum == header.checksum;
     }
 
-    public ByteBuffer[] serialize() {
-        header.checksum = checksum(header.serialize()); // just for checksum, overwrite checksum later
-        ByteBuffer headerBuffer = header.serialize();
-        return new ByteBuffer[] {headerBuffer, ByteBuffer.wrap(key)};
+    // encode entry at dst position with checksum computed in place, return entry size
+    public static int serialize(ByteBuffer dst, CRC32 crc32, byte[] key, int recordOffset, int recordSize, long sequenceNumber) {
+        int start = dst.position();
+        dst.put(Versions.INDEX_FILE_VERSION);
+        dst.put((byte) key.length);
+        dst.putInt(recordOffset);
+        dst.putInt(recordSize);
+        dst.putLong(sequenceNumber);
+        dst.putInt(0); // checksum placeholder
+        dst.put(key);
+        int entrySize = dst.position() - start;
+        // checksum over header (without checksum) and key
+        int limit = dst.limit();
+        crc32.reset();
+        dst.position(start);
+        dst.limit(start + HEADER_SIZE_WITHOUT_CHECKSUM);
+        crc32.update(dst);
+        dst.limit(start + entrySize);
+        dst.position(start + HEADER_SIZE);
+        crc32.update(dst);
+        dst.limit(limit);
+        dst.putInt(start + CHECKSUM_OFFSET, NumberUtils.fromUInt32(crc32.getValue()));
+        return entrySize;
     }
 
     public static IndexFileEntry deserialize(ByteBuffer buffer, Header header) {
@@ -14,13 +14,33 @@ public class Record {
      * key
      * value
      */
-    public static final int HEADER_SIZE = 1 + 1 + 4 + 8 + 4; // version(1), key_size(1), value_size(4), sequence_number(8), checksum(4)
-    public static final int HEADER_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 4 + 8;
+    public static final int HEADER_SIZE = 1 + 1 + 1 + 4 + 8 + 4; // version(1), flags(1), key_size(1), value_size(4), sequence_number(8), checksum(4)
+    public static final int HEADER_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 1 + 4 + 8;
     public static final int VERSION_OFFSET = 0;
-    public static final int KEY_SIZE_OFFSET = 1;
-    public static final int VALUE_SIZE_OFFSET = 1 + 1;
-    public static final int SEQUENCE_NUMBER_OFFSET = 1 + 1 + 4;
-    public static final int CHECKSUM_OFFSET = 1 + 1 + 4 + 8;
+    public static final int FLAGS_OFFSET = 1;
+    public static final int KEY_SIZE_OFFSET = 1 + 1;
+    public static final int VALUE_SIZE_OFFSET = 1 + 1 + 1;
+    public static final int SEQUENCE_NUMBER_OFFSET = 1 + 1 + 1 + 4;
+    public static final int CHECKSUM_OFFSET = 1 + 1 + 1 + 4 + 8;
+    /**
+     * flags
+     * - batch: record was written as part of a write batch
+     * - batch end: last record of a write batch, a batch without it was not completely written
+     * - tombstone: delete of a write batch (also written to tombstone file), no index entry
+     */
+    public static final byte FLAG_BATCH = 0x01;
+    public static final byte FLAG_BATCH_END = 0x02;
+    public static final byte FLAG_TOMBSTONE = 0x04;
+    /**
+     * header of legacy version (0xF1, before records had flags), only read to upgrade old data files
+     * version(1), key_size(1), value_size(4), sequence_number(8), checksum(4)
+     */
+    public static final int LEGACY_HEADER_SIZE = 1 + 1 + 4 + 8 + 4;
+    public static final int LEGACY_HEADER_SIZE_WITHOUT_CHECKSUM = 1 + 1 + 4 + 8;
+    public static final int LEGACY_KEY_SIZE_OFFSET = 1;
+    public static final int LEGACY_VALUE_SIZE_OFFSET = 1 + 1;
+    public static final int LEGACY_SEQUENCE_NUMBER_OFFSET = 1 + 1 + 4;
+    public static final int LEGACY_CHECKSUM_OFFSET = 1 + 1 + 4 + 8;
 
     private final Header header;
     private final byte[] key;
@@ -30,7 +50,7 @@ public class Record {
     public Record(byte[] key, byte[] value) {
         this.key = key;
         this.value = value;
-        this.header = new Header(Versions.DATA_FILE_VERSION, (byte) key.length, value.length, -1, 0);
+        this.header = new Header(Versions.DATA_FILE_VERSION, (byte) 0, (byte) key.length, value.length, -1, 0);
         recordSize = key.length + value.length + HEADER_SIZE;
     }
 
@@ -54,10 +74,52 @@ public class Record {
         return checksum == header.checksum;
     }
 
-    public ByteBuffer[] serialize() {
-        header.checksum = checksum(header.serialize()); // just for checksum, overwrite checksum later
-        ByteBuffer headerBuffer = header.serialize();
-        return new ByteBuffer[] {headerBuffer, ByteBuffer.wrap(key), ByteBuffer.wrap(value)};
+    // checksum of legacy record, computed over the legacy header it was read from
+    public boolean verifyLegacyChecksum(ByteBuffer legacyHeaderBuffer) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(legacyHeaderBuffer.array(), 0, LEGACY_HEADER_SIZE_WITHOUT_CHECKSUM);
+        crc32.update(key);
+        crc32.update(value);
+        return crc32.getValue() == header.checksum;
+    }
+
+    // encode record at dst position with checksum computed in place, return record size
+    public static int serialize(ByteBuffer dst, CRC32 crc32, byte[] key, ByteBuffer value, long sequenceNumber, byte flags) {
+        int start = dst.position();
+        dst.put(Versions.DATA_FILE_VERSION);
+        dst.put(flags);
+        dst.put((byte) key.length);
+        dst.putInt(value.remaining());
+        dst.putLong(sequenceNumber);
+        dst.putInt(0); // checksum placeholder
+        dst.put(key);
+        dst.put(value.duplicate()); // direct to direct copy if value is a direct buffer, caller's buffer is never touched
+        int recordSize = dst.position() - start;
+        dst.putInt(start + CHECKSUM_OFFSET, NumberUtils.fromUInt32(checksum(dst, start, recordSize, crc32)));
+        return recordSize;
+    }
+
+    // add flags to an encoded record, then recompute its checksum
+    public static void addFlags(ByteBuffer dst, int start, CRC32 crc32, byte flags) {
+        dst.put(start + FLAGS_OFFSET, (byte) (dst.get(start + FLAGS_OFFSET) | flags));
+        int recordSize = HEADER_SIZE + dst.get(start + KEY_SIZE_OFFSET) + dst.getInt(start + VALUE_SIZE_OFFSET);
+        dst.putInt(start + CHECKSUM_OFFSET, NumberUtils.fromUInt32(checksum(dst, start, recordSize, crc32)));
+    }
+
+    // same as checksum(ByteBuffer), over header (without checksum), key and value already encoded in buffer
+    private static long checksum(ByteBuffer buffer, int start, int recordSize, CRC32 crc32) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        crc32.reset();
+        buffer.position(start);
+        buffer.limit(start + HEADER_SIZE_WITHOUT_CHECKSUM);
+        crc32.update(buffer);
+        buffer.limit(start + recordSize);
+        buffer.position(start + HEADER_SIZE);
+        crc32.update(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        return crc32.getValue();
     }
 
     public static Record deserialize(ByteBuffer buffer, Header header) {
@@ -69,6 +131,22 @@ public class Record {
         return new Record(key, value, header);
     }
 
+    public void addFlags(byte flags) {
+        header.flags |= flags;
+    }
+
+    public boolean isBatch() {
+        return (header.flags & FLAG_BATCH) != 0;
+    }
+
+    public boolean isBatchEnd() {
+        return (header.flags & FLAG_BATCH_END) != 0;
+    }
+
+    public boolean isTombstone() {
+        return (header.flags & FLAG_TOMBSTONE) != 0;
+    }
+
     public int serializedSize() {
         return HEADER_SIZE + key.length + value.length;
     }
@@ -86,6 +164,7 @@ public class Record {
     @Setter
     public static class Header {
         private byte version;
+        private byte flags;
         private byte keySize;
         private int valueSize;
         private long sequenceNumber;
@@ -94,6 +173,7 @@ public class Record {
         public ByteBuffer serialize() {
             ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
             buffer.put(VERSION_OFFSET, version);
+            buffer.put(FLAGS_OFFSET, flags);
             buffer.put(KEY_SIZE_OFFSET, keySize);
             buffer.putInt(VALUE_SIZE_OFFSET, valueSize);
             buffer.putLong(SEQUENCE_NUMBER_OFFSET, sequenceNumber);
@@ -103,11 +183,22 @@ public class Record {
 
         public static Header deserialize(ByteBuffer buffer) {
             byte version = buffer.get(VERSION_OFFSET);
+            byte flags = buffer.get(FLAGS_OFFSET);
             byte keySize = buffer.get(KEY_SIZE_OFFSET);
             int valueSize = buffer.getInt(VALUE_SIZE_OFFSET);
             long sequenceNumber = buffer.getLong(SEQUENCE_NUMBER_OFFSET);
             long checksum = NumberUtils.toUInt32(buffer.getInt(CHECKSUM_OFFSET));
-            return new Header(version, keySize, valueSize, sequenceNumber, checksum);
+            return new Header(version, flags, keySize, valueSize, sequenceNumber, checksum);
+        }
+
+        // legacy records have no flags (flags = 0)
+        public static Header deserializeLegacy(ByteBuffer buffer) {
+            byte version = buffer.get(VERSION_OFFSET);
+            byte keySize = buffer.get(LEGACY_KEY_SIZE_OFFSET);
+            int valueSize = buffer.getInt(LEGACY_VALUE_SIZE_OFFSET);
+            long sequenceNumber = buffer.getLong(LEGACY_SEQUENCE_NUMBER_OFFSET);
+            long checksum = NumberUtils.toUInt32(buffer.getInt(LEGACY_CHECKSUM_OFFSET));
+            return new Header(version, (byte) 0, keySize, valueSize, sequenceNumber, checksum);
         }
     }
 }
@@ -1,9 +1,12 @@
 package io.github.tuannh982.phantom.db.internal.file;
 
 import io.github.tuannh982.phantom.commons.io.FileUtils;
+import io.github.tuannh982.phantom.commons.io.GrowableBuffer;
 import io.github.tuannh982.phantom.commons.number.NumberUtils;
 import io.github.tuannh982.phantom.db.internal.DBDirectory;
+import io.github.tuannh982.phantom.db.internal.DurabilityMode;
 import io.github.tuannh982.phantom.db.internal.PhantomDBOptions;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -15,6 +18,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
@@ -25,6 +29,7 @@ public class TombstoneFile implements Closeable {
     public static final String TOMBSTONE_FILE_EXTENSION = ".tombstone";
     private static final String COMPACTED_TOMBSTONE_FILE_EXTENSION = ".tombstonec";
     private static final String TOMBSTONE_REPAIR_FILE_EXTENSION = ".tombstone.repair";
+    private static final int STAGING_BUFFER_INITIAL_SIZE = 4 * 1024;
 
     private final int fileId;
     private final DBDirectory dbDirectory;
@@ -35,6 +40,11 @@ public class TombstoneFile implements Closeable {
     //
     private int unflushed = 0;
     private int writeOffset = 0;
+    // staged entries, encoded once into a reusable direct buffer (written together in one write)
+    @Getter(AccessLevel.NONE)
+    private final CRC32 crc32 = new CRC32();
+    @Getter(AccessLevel.NONE)
+    private GrowableBuffer stagingBuffer; // lazy, released by close()
 
     private TombstoneFile(int fileId, DBDirectory dbDirectory, PhantomDBOptions dbOptions, File file, FileChannel channel) throws IOException {
         this.fileId = fileId;
@@ -135,6 +145,10 @@ public class TombstoneFile implements Closeable {
 
     @Override
     public void close() throws IOException {
+        if (stagingBuffer != null) {
+            stagingBuffer.close();
+            stagingBuffer = null;
+        }
         if (channel != null && channel.isOpen()) {
             channel.force(true);
             channel.close();
@@ -142,18 +156,53 @@ public class TombstoneFile implements Closeable {
     }
 
     public void write(TombstoneFileEntry entry) throws IOException {
-        ByteBuffer[] buffers = entry.serialize();
-        long toBeWritten = 0;
-        for (ByteBuffer buffer : buffers) {
-            toBeWritten += buffer.remaining();
+        stageEntry(entry.getKey(), entry.getHeader().getSequenceNumber());
+        writeStagedEntries();
+    }
+
+    // stage entry to be written by writeStagedEntries()
+    public void stageEntry(byte[] key, long sequenceNumber) {
+        if (stagingBuffer == null) {
+            stagingBuffer = new GrowableBuffer(STAGING_BUFFER_INITIAL_SIZE);
+        }
+        ByteBuffer buffer = stagingBuffer.ensureRemaining(TombstoneFileEntry.HEADER_SIZE + key.length);
+        TombstoneFileEntry.serialize(buffer, crc32, key, sequenceNumber);
+    }
+
+    public int getStagedSize() {
+        return stagingBuffer == null ? 0 : stagingBuffer.buffer().position();
+    }
+
+    public void writeStagedEntries() throws IOException {
+        if (getStagedSize() == 0) {
+            return;
+        }
+        ByteBuffer buffer = stagingBuffer.buffer();
+        try {
+            buffer.flip();
+            write(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    // drop staged entries of a failed commit, so they are never written
+    public void discardStagedEntries() {
+        if (stagingBuffer != null) {
+            stagingBuffer.buffer().clear();
         }
-        long written = 0;
-        while (written < toBeWritten) {
-            written += channel.write(buffers);
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            channel.write(src);
         }
         writeOffset += written;
         unflushed += written;
-        if (unflushed > dbOptions.getDataFlushThreshold()) {
+        DurabilityMode durabilityMode = dbOptions.getDurabilityMode();
+        if (durabilityMode == DurabilityMode.SYNC_WRITE ||
+                (durabilityMode == DurabilityMode.FLUSH_THRESHOLD && unflushed > dbOptions.getDataFlushThreshold())) {
             flush();
             unflushed = 0;
         }
@@ -185,7 +234,13 @@ public class TombstoneFile implements Closeable {
                     ByteBuffer headerBuffer = ByteBuffer.allocate(TombstoneFileEntry.HEADER_SIZE);
                     // offset += FileUtils.read(iterChannel, offset, headerBuffer);
                     offset += iterChannel.read(headerBuffer);
+                    if (headerBuffer.hasRemaining()) {
+                        throw new IOException("incomplete tombstone header");
+                    }
                     TombstoneFileEntry.Header header = TombstoneFileEntry.Header.deserialize(headerBuffer);
+                    if (header.getKeySize() < 0 || offset + header.getKeySize() > channelSize) {
+                        throw new IOException("invalid tombstone header");
+                    }
                     ByteBuffer dataBuffer = ByteBuffer.allocate(header.getKeySize());
                     // offset += FileUtils.read(iterChannel, offset, dataBuffer);
                     offset += iterChannel.read(dataBuffer);
@@ -197,8 +252,15 @@ public class TombstoneFile implements Closeable {
                 } catch (IOException e) {
                     log.error("tombstone file corrupted ", e);
                     offset = channelSize;
+                    closeChannel();
+                    return null; // corrupted
                 }
             }
+            closeChannel();
+            throw new NoSuchElementException();
+        }
+
+        private void closeChannel() {
             try {
                 if (iterChannel != null && iterChannel.isOpen()) {
                     iterChannel.close();
@@ -206,7 +268,6 @@ public class TombstoneFile implements Closeable {
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
-            throw new NoSuchElementException();
         }
     }
 }
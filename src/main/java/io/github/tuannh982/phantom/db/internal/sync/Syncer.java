@@ -0,0 +1,81 @@
+package io.github.tuannh982.phantom.db.internal.sync;
+
+import io.github.tuannh982.phantom.db.internal.PhantomDBInternal;
+import io.github.tuannh982.phantom.db.internal.PhantomDBOptions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * background fsync for DurabilityMode.SYNC_PERIODIC, so writers never block on force()
+ */
+@Slf4j
+public class Syncer implements Closeable {
+    private final PhantomDBOptions options;
+    private PhantomDBInternal dbInternal;
+    // task
+    private Thread syncThread;
+    // state
+    private volatile boolean started = false;
+    private boolean closed = false;
+
+    public Syncer(PhantomDBOptions options) {
+        this.options = options;
+    }
+
+    public synchronized void start(PhantomDBInternal dbInternal) {
+        if (started) {
+            log.warn("Syncer already started");
+            return;
+        }
+        if (closed) {
+            log.warn("Syncer already closed");
+            return;
+        }
+        this.dbInternal = dbInternal;
+        started = true;
+        syncThread = new SyncThread();
+        syncThread.start();
+    }
+
+    @SuppressWarnings("java:S2142")
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (started) {
+                started = false;
+                LockSupport.unpark(syncThread); // never interrupt, it will close the channel being forced
+                try {
+                    syncThread.join();
+                } catch (InterruptedException e) {
+                    log.error("Error while stopping sync thread", e);
+                }
+            }
+        } else {
+            log.warn("Syncer already closed");
+        }
+    }
+
+    private class SyncThread extends Thread {
+        public SyncThread() {
+            setName("phantom-syncer");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (started) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(options.getSyncInterval()));
+                try {
+                    dbInternal.syncCurrentFiles();
+                } catch (IOException e) {
+                    log.error("Sync failed", e);
+                }
+            }
+        }
+    }
+}
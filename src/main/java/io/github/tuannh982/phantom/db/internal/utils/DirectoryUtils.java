@@ -1,10 +1,14 @@
 package io.github.tuannh982.phantom.db.internal.utils;
 
 import io.github.tuannh982.phantom.commons.io.FileUtils;
+import io.github.tuannh982.phantom.db.internal.file.Record;
 import io.github.tuannh982.phantom.db.internal.file.TombstoneFile;
+import io.github.tuannh982.phantom.db.internal.file.TombstoneFileEntry;
 import io.github.tuannh982.phantom.db.DBException;
 import io.github.tuannh982.phantom.db.internal.DBDirectory;
 import io.github.tuannh982.phantom.db.internal.PhantomDBOptions;
+import io.github.tuannh982.phantom.db.internal.Versions;
+import io.github.tuannh982.phantom.db.internal.WritePartition;
 import io.github.tuannh982.phantom.db.internal.file.DBFile;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -96,6 +100,19 @@ public class DirectoryUtils {
             // update maxFileId
             maxFileId = Math.max(maxFileId, fileId);
             DBFile dbFile = DBFile.openForRead(fileId, dbDirectory, options, compacted);
+            byte version = dbFile.version();
+            if (version == Versions.LEGACY_DATA_FILE_VERSION) {
+                // records before flags were added, rewritten in current layout
+                log.info("Upgrading data file {} from version 0x{}", fileName, String.format("%02X", version));
+                dbFile = dbFile.upgradeAndOpenForRead();
+            } else if (version != 0 && version != Versions.DATA_FILE_VERSION) {
+                // unknown (e.g. newer) version, refuse to open instead of reading (and repairing) it with the current layout
+                dbFile.close();
+                for (DBFile opened : dbFileMap.values()) {
+                    opened.close();
+                }
+                throw new DBException(String.format("unsupported data file version 0x%02X of file %s, expected 0x%02X", version, fileName, Versions.DATA_FILE_VERSION));
+            }
             if (dbFileMap.putIfAbsent(fileId, dbFile) != null) {
                 throw new DBException("found duplicated file ID, file_id = " + fileId);
             }
@@ -121,35 +138,95 @@ public class DirectoryUtils {
         }
     }
 
-    public static void repairLatestDataFile(Map<Integer, DBFile> dataFileMap) throws IOException {
-        int maxDataFileId = Integer.MIN_VALUE;
-        int maxCompactedDataFileId = Integer.MIN_VALUE;
-        for (Map.Entry<Integer, DBFile> entry : dataFileMap.entrySet()) {
-            if (entry.getValue().isCompacted()) {
-                maxCompactedDataFileId = Math.max(maxCompactedDataFileId, entry.getKey());
-            } else {
-                maxDataFileId = Math.max(maxDataFileId, entry.getKey());
-            }
-        }
-        if (maxDataFileId != Integer.MIN_VALUE) {
-            DBFile latestDataFile = dataFileMap.get(maxDataFileId).repairAndOpenForRead();
-            dataFileMap.put(maxDataFileId, latestDataFile);
+    /*
+    data files of a write partition are in the same file class, return the tombstones of write batches found in the
+    latest data file of each class. an empty latest data file is the standby file of the partition, so it is deleted
+    and the previous one (the active file) is repaired
+     */
+    public static List<List<TombstoneFileEntry>> repairLatestDataFiles(NavigableMap<Integer, DBFile> dataFileMap, int writePartitions) throws IOException {
+        int fileClassCount = WritePartition.fileClassCount(writePartitions);
+        boolean[] repaired = new boolean[fileClassCount];
+        boolean compactedRepaired = false;
+        List<List<TombstoneFileEntry>> batchTombstones = new ArrayList<>(fileClassCount);
+        for (int i = 0; i < fileClassCount; i++) {
+            batchTombstones.add(new ArrayList<>());
         }
-        if (maxCompactedDataFileId != Integer.MIN_VALUE) {
-            DBFile latestCompactedDataFile = dataFileMap.get(maxCompactedDataFileId).repairAndOpenForRead();
-            dataFileMap.put(maxCompactedDataFileId, latestCompactedDataFile);
+        for (Integer fileId : new ArrayList<>(dataFileMap.descendingKeySet())) {
+            DBFile dbFile = dataFileMap.get(fileId);
+            if (dbFile.isCompacted()) {
+                if (!compactedRepaired) {
+                    dataFileMap.put(fileId, dbFile.repairAndOpenForRead());
+                    compactedRepaired = true;
+                }
+                continue;
+            }
+            int fileClass = WritePartition.fileClass(fileId, writePartitions);
+            if (repaired[fileClass]) {
+                continue;
+            }
+            DBFile latestDataFile = dbFile.repairAndOpenForRead();
+            if (latestDataFile.getWriteOffset() == 0) {
+                latestDataFile.close();
+                latestDataFile.delete();
+                dataFileMap.remove(fileId);
+                continue;
+            }
+            dataFileMap.put(fileId, latestDataFile);
+            repaired[fileClass] = true;
+            Iterator<Record> iterator = latestDataFile.iterator();
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                if (record == null) {
+                    break;
+                }
+                if (record.isTombstone()) {
+                    TombstoneFileEntry entry = new TombstoneFileEntry(record.getKey());
+                    entry.getHeader().setSequenceNumber(record.getHeader().getSequenceNumber());
+                    batchTombstones.get(fileClass).add(entry);
+                }
+            }
         }
+        return batchTombstones;
     }
 
+    // batch tombstones newer than the latest tombstone file of the same class were committed in data file but not in tombstone file
     @SuppressWarnings("java:S2095")
-    public static void repairLatestTombstoneFile(DBDirectory dbDirectory, PhantomDBOptions options) throws IOException {
-        File[] tombstoneFiles = dbDirectory.tombstoneFiles();
-        if (tombstoneFiles.length > 0) {
-            File latestFile = tombstoneFiles[tombstoneFiles.length - 1];
-            int fileId = fileId(latestFile, TOMBSTONE_FILE_PATTERN);
-            TombstoneFile tombstoneFile = TombstoneFile.open(fileId, dbDirectory, options);
-            TombstoneFile repaired = tombstoneFile.repairAndOpen();
-            repaired.close();
+    public static void repairLatestTombstoneFiles(DBDirectory dbDirectory, PhantomDBOptions options, int writePartitions, List<List<TombstoneFileEntry>> batchTombstones) throws IOException {
+        int fileClassCount = WritePartition.fileClassCount(writePartitions);
+        File[] latestFiles = new File[fileClassCount];
+        for (File file : dbDirectory.tombstoneFiles()) { // already sorted
+            if (file.length() > 0) { // skip standby files
+                latestFiles[WritePartition.fileClass(fileId(file, TOMBSTONE_FILE_PATTERN), writePartitions)] = file;
+            }
+        }
+        for (int fileClass = 0; fileClass < fileClassCount; fileClass++) {
+            TombstoneFile repaired = null;
+            long maxSequenceNumber = Long.MIN_VALUE;
+            if (latestFiles[fileClass] != null) {
+                int fileId = fileId(latestFiles[fileClass], TOMBSTONE_FILE_PATTERN);
+                TombstoneFile tombstoneFile = TombstoneFile.open(fileId, dbDirectory, options);
+                repaired = tombstoneFile.repairAndOpen();
+                Iterator<TombstoneFileEntry> iterator = repaired.iterator();
+                while (iterator.hasNext()) {
+                    TombstoneFileEntry entry = iterator.next();
+                    if (entry == null) {
+                        break;
+                    }
+                    maxSequenceNumber = Math.max(maxSequenceNumber, entry.getHeader().getSequenceNumber());
+                }
+            }
+            for (TombstoneFileEntry entry : batchTombstones.get(fileClass)) {
+                if (entry.getHeader().getSequenceNumber() > maxSequenceNumber) {
+                    if (repaired == null) {
+                        repaired = TombstoneFile.create(dbDirectory.maxFileId() + 1, dbDirectory, options);
+                        dbDirectory.sync();
+                    }
+                    repaired.write(entry);
+                }
+            }
+            if (repaired != null) {
+                repaired.close();
+            }
         }
     }
 }
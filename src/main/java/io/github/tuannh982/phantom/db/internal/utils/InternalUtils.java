@@ -29,11 +29,13 @@ public class InternalUtils {
         private final Map<Integer, Integer> staleDataMap;
         private final IndexFile file;
         private final int fileId;
+        private final int maxKeySize;
 
-        public IndexFileProcessTask(IndexMap indexMap, Map<Integer, Integer> staleDataMap, IndexFile file) {
+        public IndexFileProcessTask(IndexMap indexMap, Map<Integer, Integer> staleDataMap, IndexFile file, int maxKeySize) {
             this.indexMap = indexMap;
             this.staleDataMap = staleDataMap;
             this.file = file;
+            this.maxKeySize = maxKeySize;
             this.fileId = file.getFileId();
         }
 
@@ -50,6 +52,9 @@ public class InternalUtils {
                 long sequenceNumber = entry.getHeader().getSequenceNumber();
                 int recordOffset = entry.getHeader().getRecordOffset();
                 int recordSize = entry.getHeader().getRecordSize();
+                if (key.length > maxKeySize) { // written with a larger maxKeySize
+                    throw new IOException("key size " + key.length + " of index file " + fileId + " is greater than maxKeySize " + maxKeySize);
+                }
                 // calc
                 int valueOffset = recordOffset + Record.HEADER_SIZE + key.length;
                 int valueSize = recordSize - Record.HEADER_SIZE - key.length;
@@ -121,6 +126,9 @@ public class InternalUtils {
             // do
             while (iterator.hasNext()) {
                 TombstoneFileEntry entry = iterator.next();
+                if (entry == null) { // corrupted
+                    break;
+                }
                 // get
                 byte[] key = entry.getKey();
                 long sequenceNumber = entry.getHeader().getSequenceNumber();
@@ -167,7 +175,7 @@ public class InternalUtils {
         for (File file : indexFiles) {
             int fileId = DirectoryUtils.fileId(file, DirectoryUtils.INDEX_FILE_PATTERN);
             IndexFile indexFile = IndexFile.open(fileId, dbDirectory, options);
-            indexingTasks.add(new IndexFileProcessTask(indexMap, staleDataMap, indexFile));
+            indexingTasks.add(new IndexFileProcessTask(indexMap, staleDataMap, indexFile, options.getMaxKeySize()));
         }
         try {
             List<Future<Long>> futures = executorService.invokeAll(indexingTasks);
@@ -212,6 +220,9 @@ public class InternalUtils {
                 Iterator<TombstoneFileEntry> iterator = tombstoneFile.iterator();
                 while (iterator.hasNext()) {
                     TombstoneFileEntry entry = iterator.next();
+                    if (entry == null) { // corrupted
+                        break;
+                    }
                     // rollover current tombstone file
                     if (mergedTombstoneFile == null) {
                         // create new file
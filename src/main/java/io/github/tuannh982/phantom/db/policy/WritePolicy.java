@@ -52,7 +52,7 @@ public class WritePolicy extends Policy {
 
         public WritePolicy build() {
             validate(
-                    sequenceNumberPolicy == SequenceNumberPolicy.EXPECT_EQUAL && expectedSequenceNumber != null,
+                    sequenceNumberPolicy != SequenceNumberPolicy.EXPECT_EQUAL || expectedSequenceNumber != null,
                     "expectedSequenceNumber must be existed while sequenceNumberPolicy = EXPECT_EQUAL"
             );
             return new WritePolicy(expectedSequenceNumber, sequenceNumberPolicy, recordExistsAction);
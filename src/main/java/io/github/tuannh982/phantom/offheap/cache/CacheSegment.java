@@ -0,0 +1,221 @@
+package io.github.tuannh982.phantom.offheap.cache;
+
+import io.github.tuannh982.phantom.commons.concurrent.RLock;
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/*
+fixed number of fixed size slots, chained hash buckets, CLOCK eviction.
+slot = next_slot(4), hash(8), sequence_number(8), value_length(4), key_length(1), referenced(1), key(max_key_size), value(max_value_size)
+ */
+public class CacheSegment implements Closeable {
+    private static final int NULL_SLOT = -1;
+    private static final int NEXT_OFFSET = 0;
+    private static final int HASH_OFFSET = NEXT_OFFSET + 4;
+    private static final int SEQUENCE_NUMBER_OFFSET = HASH_OFFSET + 8;
+    private static final int VALUE_LENGTH_OFFSET = SEQUENCE_NUMBER_OFFSET + 8;
+    private static final int KEY_LENGTH_OFFSET = VALUE_LENGTH_OFFSET + 4;
+    private static final int REFERENCED_OFFSET = KEY_LENGTH_OFFSET + 1;
+    private static final int DATA_OFFSET = REFERENCED_OFFSET + 1;
+    public static final int HEADER_SIZE = DATA_OFFSET;
+
+    // primary
+    private final int maxKeySize;
+    private final int slotSize;
+    private final int slotCount;
+    private final int bucketMask;
+    // memory
+    private final long buckets;
+    private final long slots;
+    // lock
+    private final RLock lock;
+    // clock
+    private int usedSlots;
+    private int hand;
+    //
+    private boolean closed;
+
+    public CacheSegment(int maxKeySize, int maxValueSize, int slotCount) {
+        this.maxKeySize = maxKeySize;
+        this.slotSize = DATA_OFFSET + maxKeySize + maxValueSize;
+        this.slotCount = slotCount;
+        int bucketCount = NumberUtils.roundUpToPowerOf2(slotCount);
+        this.bucketMask = bucketCount - 1;
+        this.buckets = UnsafeWrapper.malloc((long) bucketCount * 4);
+        UnsafeWrapper.memset(buckets, 0, bucketCount * 4, (byte) 0xff); // set all to null slot
+        this.slots = UnsafeWrapper.malloc((long) slotCount * slotSize);
+        this.lock = new RLock();
+        this.usedSlots = 0;
+        this.hand = 0;
+        this.closed = false;
+    }
+
+    private long slotAddress(int slot) {
+        return slots + (long) slot * slotSize;
+    }
+
+    private long bucketOffset(long hash) {
+        return (hash & bucketMask) * 4;
+    }
+
+    private int find(long hash, byte[] key) {
+        int slot = UnsafeWrapper.getInt(buckets, bucketOffset(hash));
+        while (slot != NULL_SLOT) {
+            long address = slotAddress(slot);
+            if (UnsafeWrapper.getLong(address, HASH_OFFSET) == hash &&
+                    UnsafeWrapper.getByte(address, KEY_LENGTH_OFFSET) == key.length &&
+                    UnsafeWrapper.isEquals(address, DATA_OFFSET, key)) {
+                return slot;
+            }
+            slot = UnsafeWrapper.getInt(address, NEXT_OFFSET);
+        }
+        return NULL_SLOT;
+    }
+
+    // slot of the same key and sequence number, NULL_SLOT if not cached
+    private int lookup(long hash, byte[] key, long sequenceNumber) {
+        if (closed) {
+            return NULL_SLOT;
+        }
+        int slot = find(hash, key);
+        if (slot != NULL_SLOT) {
+            long address = slotAddress(slot);
+            if (UnsafeWrapper.getLong(address, SEQUENCE_NUMBER_OFFSET) == sequenceNumber) {
+                UnsafeWrapper.putByte(address, REFERENCED_OFFSET, (byte) 1);
+                return slot;
+            }
+        }
+        return NULL_SLOT;
+    }
+
+    public byte[] get(long hash, byte[] key, long sequenceNumber) {
+        boolean rlock = lock.lock();
+        try {
+            int slot = lookup(hash, key, sequenceNumber);
+            if (slot == NULL_SLOT) {
+                return null;
+            }
+            long address = slotAddress(slot);
+            byte[] value = new byte[UnsafeWrapper.getInt(address, VALUE_LENGTH_OFFSET)];
+            UnsafeWrapper.memcpy(address, (long) DATA_OFFSET + maxKeySize, value, 0, value.length);
+            return value;
+        } finally {
+            lock.release(rlock);
+        }
+    }
+
+    // copy cached value into dst (from its position), return -1 if not cached or dst is too small
+    public int get(long hash, byte[] key, long sequenceNumber, ByteBuffer dst) {
+        boolean rlock = lock.lock();
+        try {
+            int slot = lookup(hash, key, sequenceNumber);
+            if (slot == NULL_SLOT) {
+                return -1;
+            }
+            long address = slotAddress(slot);
+            int valueLength = UnsafeWrapper.getInt(address, VALUE_LENGTH_OFFSET);
+            if (dst.remaining() < valueLength) {
+                return -1;
+            }
+            if (dst.hasArray()) {
+                UnsafeWrapper.memcpy(address, (long) DATA_OFFSET + maxKeySize, dst.array(), (long) dst.arrayOffset() + dst.position(), valueLength);
+                dst.position(dst.position() + valueLength);
+            } else {
+                dst.put(UnsafeWrapper.directBuffer(address, (long) DATA_OFFSET + maxKeySize, valueLength, true));
+            }
+            return valueLength;
+        } finally {
+            lock.release(rlock);
+        }
+    }
+
+    // value = [position, limit), position is not changed
+    public void put(long hash, byte[] key, long sequenceNumber, ByteBuffer value) {
+        boolean rlock = lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            int slot = find(hash, key);
+            if (slot == NULL_SLOT) {
+                slot = allocate();
+                long address = slotAddress(slot);
+                UnsafeWrapper.putLong(address, HASH_OFFSET, hash);
+                UnsafeWrapper.putByte(address, KEY_LENGTH_OFFSET, (byte) key.length);
+                UnsafeWrapper.memcpy(key, 0, address, DATA_OFFSET, key.length);
+                UnsafeWrapper.putInt(address, NEXT_OFFSET, UnsafeWrapper.getInt(buckets, bucketOffset(hash)));
+                UnsafeWrapper.putInt(buckets, bucketOffset(hash), slot);
+            } else if (UnsafeWrapper.getLong(slotAddress(slot), SEQUENCE_NUMBER_OFFSET) >= sequenceNumber) {
+                return; // a slow reader must not replace a newer value
+            }
+            long address = slotAddress(slot);
+            int valueLength = value.remaining();
+            UnsafeWrapper.putLong(address, SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+            UnsafeWrapper.putInt(address, VALUE_LENGTH_OFFSET, valueLength);
+            UnsafeWrapper.putByte(address, REFERENCED_OFFSET, (byte) 0); // second chance only after a hit
+            if (value.hasArray()) {
+                UnsafeWrapper.memcpy(value.array(), (long) value.arrayOffset() + value.position(), address, (long) DATA_OFFSET + maxKeySize, valueLength);
+            } else {
+                UnsafeWrapper.directBuffer(address, (long) DATA_OFFSET + maxKeySize, valueLength, false).put(value.duplicate());
+            }
+        } finally {
+            lock.release(rlock);
+        }
+    }
+
+    // free slot if any, otherwise evict the first slot the clock hand found unreferenced
+    private int allocate() {
+        if (usedSlots < slotCount) {
+            return usedSlots++;
+        }
+        while (true) {
+            long address = slotAddress(hand);
+            if (UnsafeWrapper.getByte(address, REFERENCED_OFFSET) != 0) {
+                UnsafeWrapper.putByte(address, REFERENCED_OFFSET, (byte) 0);
+                hand = (hand + 1) % slotCount;
+            } else {
+                int victim = hand;
+                hand = (hand + 1) % slotCount;
+                unlink(victim);
+                return victim;
+            }
+        }
+    }
+
+    private void unlink(int victim) {
+        long victimAddress = slotAddress(victim);
+        long bucketOffset = bucketOffset(UnsafeWrapper.getLong(victimAddress, HASH_OFFSET));
+        int next = UnsafeWrapper.getInt(victimAddress, NEXT_OFFSET);
+        int slot = UnsafeWrapper.getInt(buckets, bucketOffset);
+        if (slot == victim) {
+            UnsafeWrapper.putInt(buckets, bucketOffset, next);
+            return;
+        }
+        while (slot != NULL_SLOT) {
+            long address = slotAddress(slot);
+            int current = UnsafeWrapper.getInt(address, NEXT_OFFSET);
+            if (current == victim) {
+                UnsafeWrapper.putInt(address, NEXT_OFFSET, next);
+                return;
+            }
+            slot = current;
+        }
+    }
+
+    @Override
+    public void close() {
+        boolean rlock = lock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                UnsafeWrapper.free(buckets);
+                UnsafeWrapper.free(slots);
+            }
+        } finally {
+            lock.release(rlock);
+        }
+    }
+}
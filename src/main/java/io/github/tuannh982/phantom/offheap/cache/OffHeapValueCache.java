@@ -0,0 +1,103 @@
+package io.github.tuannh982.phantom.offheap.cache;
+
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.os.OSConstants;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+bounded off-heap cache of values, keyed by (key, sequence number).
+a record with given key and sequence number never changes (compaction moves it but keeps its sequence number),
+so an entry could never be stale, updated keys just miss until the new value is cached
+ */
+@Getter
+public class OffHeapValueCache implements Closeable {
+    private static final int MIN_SLOTS_PER_SEGMENT = 16;
+
+    private final Hasher hasher;
+    private final int maxKeySize;
+    private final int maxValueSize;
+    private final CacheSegment[] segments;
+    private final int segmentBitShift;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public OffHeapValueCache(long cacheSize, int maxKeySize, int maxValueSize, Hasher hasher) {
+        this.hasher = hasher;
+        this.maxKeySize = maxKeySize;
+        this.maxValueSize = maxValueSize;
+        int segmentCount = NumberUtils.roundUpToPowerOf2(2 * Runtime.getRuntime().availableProcessors());
+        long slotSize = (long) CacheSegment.HEADER_SIZE + maxKeySize + maxValueSize;
+        long slotsPerSegment = cacheSize / slotSize / segmentCount;
+        if (slotsPerSegment < MIN_SLOTS_PER_SEGMENT) {
+            slotsPerSegment = MIN_SLOTS_PER_SEGMENT;
+        }
+        int slotCount = (int) Math.min(slotsPerSegment, NumberUtils.INTEGER_MAX_POWER_OF_TWO / slotSize);
+        this.segments = new CacheSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new CacheSegment(maxKeySize, maxValueSize, slotCount);
+        }
+        this.segmentBitShift = OSConstants.WORD_SIZE_AS_BIT - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    private CacheSegment segment(long hash) {
+        if (segments.length == 1) {
+            return segments[0]; // shift by 64 is a no-op
+        }
+        return segments[(int) (hash >>> segmentBitShift)];
+    }
+
+    public byte[] get(byte[] key, long sequenceNumber) {
+        if (key.length > maxKeySize) {
+            missCount.increment();
+            return null;
+        }
+        long hash = hasher.hash(key);
+        byte[] value = segment(hash).get(hash, key, sequenceNumber);
+        if (value == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value;
+    }
+
+    // copy value into dst (from its position), return false if not cached
+    public boolean get(byte[] key, long sequenceNumber, ByteBuffer dst) {
+        if (key.length > maxKeySize) {
+            missCount.increment();
+            return false;
+        }
+        long hash = hasher.hash(key);
+        if (segment(hash).get(hash, key, sequenceNumber, dst) < 0) {
+            missCount.increment();
+            return false;
+        }
+        hitCount.increment();
+        return true;
+    }
+
+    // values larger than max value size (or of keys larger than max key size) are not cached
+    public void put(byte[] key, long sequenceNumber, ByteBuffer value) {
+        if (key.length > maxKeySize || value.remaining() > maxValueSize) {
+            return;
+        }
+        long hash = hasher.hash(key);
+        segment(hash).put(hash, key, sequenceNumber, value);
+    }
+
+    public void put(byte[] key, long sequenceNumber, byte[] value) {
+        put(key, sequenceNumber, ByteBuffer.wrap(value));
+    }
+
+    @Override
+    public void close() {
+        for (CacheSegment segment : segments) {
+            segment.close();
+        }
+    }
+}
@@ -8,4 +8,10 @@ public interface HashTable<V> extends Closeable {
     V putIfAbsent(KeyBuffer keyBuffer, V value);
     boolean replace(KeyBuffer keyBuffer, V oldValue, V newValue);
     void remove(KeyBuffer keyBuffer);
+    // pre-hashed key variants, get reads value into reuse if supported by value serializer (reuse could be null)
+    V get(byte[] key, long hash, V reuse);
+    void put(byte[] key, long hash, V value);
+    V putIfAbsent(byte[] key, long hash, V value);
+    boolean replace(byte[] key, long hash, V oldValue, V newValue);
+    void remove(byte[] key, long hash);
 }
@@ -1,5 +1,6 @@
 package io.github.tuannh982.phantom.offheap.hashtable;
 
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
 import lombok.Builder;
 import lombok.Getter;
 
@@ -12,4 +13,5 @@ public class HashTableOptions<V> {
     private final int fixedValueSize;
     private final int entryTableSizePerSegment;
     private final ValueSerializer<V> valueSerializer;
+    private final Hasher hasher; // hasher of keys, needed to grow entry tables (null = entry tables never grow)
 }
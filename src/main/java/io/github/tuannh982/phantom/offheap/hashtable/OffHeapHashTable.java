@@ -34,7 +34,8 @@ public class OffHeapHashTable<V> implements HashTable<V> {
                     options.getFixedValueSize(),
                     options.getMemoryChunkSize(),
                     options.getValueSerializer(),
-                    options.getEntryTableSizePerSegment()
+                    options.getEntryTableSizePerSegment(),
+                    options.getHasher()
             ));
         }
         segmentBitCount = NumberUtils.bitCount(segmentCount);
@@ -49,27 +50,59 @@ public class OffHeapHashTable<V> implements HashTable<V> {
 
     @Override
     public V get(KeyBuffer keyBuffer) {
-        return getSegment(keyBuffer.hash()).get(keyBuffer);
+        return get(keyBuffer.buffer(), keyBuffer.hash(), null);
     }
 
     @Override
     public void put(KeyBuffer keyBuffer, V value) {
-        getSegment(keyBuffer.hash()).put(keyBuffer, value);
+        put(keyBuffer.buffer(), keyBuffer.hash(), value);
     }
 
     @Override
     public V putIfAbsent(KeyBuffer keyBuffer, V value) {
-        return getSegment(keyBuffer.hash()).putIfAbsent(keyBuffer, value);
+        return putIfAbsent(keyBuffer.buffer(), keyBuffer.hash(), value);
     }
 
     @Override
     public boolean replace(KeyBuffer keyBuffer, V oldValue, V newValue) {
-        return getSegment(keyBuffer.hash()).replace(keyBuffer, oldValue, newValue);
+        return replace(keyBuffer.buffer(), keyBuffer.hash(), oldValue, newValue);
     }
 
     @Override
     public void remove(KeyBuffer keyBuffer) {
-        getSegment(keyBuffer.hash()).delete(keyBuffer);
+        remove(keyBuffer.buffer(), keyBuffer.hash());
+    }
+
+    // keys are validated by the caller (db rejects them before anything is written)
+    private void checkKeySize(byte[] key) {
+        assert key.length <= options.getMaxKeySize() : "key size must not greater than " + options.getMaxKeySize();
+    }
+
+    @Override
+    public V get(byte[] key, long hash, V reuse) {
+        return getSegment(hash).get(hash, key, reuse);
+    }
+
+    @Override
+    public void put(byte[] key, long hash, V value) {
+        checkKeySize(key);
+        getSegment(hash).put(hash, key, value);
+    }
+
+    @Override
+    public V putIfAbsent(byte[] key, long hash, V value) {
+        checkKeySize(key);
+        return getSegment(hash).putIfAbsent(hash, key, value);
+    }
+
+    @Override
+    public boolean replace(byte[] key, long hash, V oldValue, V newValue) {
+        return getSegment(hash).replace(hash, key, oldValue, newValue);
+    }
+
+    @Override
+    public void remove(byte[] key, long hash) {
+        getSegment(hash).delete(hash, key);
     }
 
     @Override
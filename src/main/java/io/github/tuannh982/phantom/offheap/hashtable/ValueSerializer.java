@@ -1,9 +1,28 @@
 package io.github.tuannh982.phantom.offheap.hashtable;
 
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+
 import java.nio.ByteBuffer;
 
 public interface ValueSerializer<V> {
     ByteBuffer serialize(V value);
     V deserialize(ByteBuffer buffer);
     int serializedSize();
+
+    // direct memory access (same layout as serialize), override to avoid intermediate buffers
+
+    default void serialize(V value, long address) {
+        byte[] serialized = serialize(value).array();
+        UnsafeWrapper.memcpy(serialized, 0, address, 0, serialized.length);
+    }
+
+    // deserialize into reuse if supported (reuse could be null), return the deserialized value
+    default V deserialize(long address, V reuse) {
+        return deserialize(UnsafeWrapper.directBuffer(address, 0, serializedSize(), true));
+    }
+
+    // compare value with the value serialized at address
+    default boolean isEquals(V value, long address) {
+        return UnsafeWrapper.isEquals(address, 0, serialize(value).array());
+    }
 }
@@ -0,0 +1,116 @@
+package io.github.tuannh982.phantom.offheap.hashtable.openaddressing;
+
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.os.OSConstants;
+import io.github.tuannh982.phantom.offheap.hashtable.HashTable;
+import io.github.tuannh982.phantom.offheap.hashtable.HashTableOptions;
+import io.github.tuannh982.phantom.offheap.hashtable.KeyBuffer;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+off-heap hash table with open addressing segments, alternative of OffHeapHashTable for fixed size values.
+entryTableSizePerSegment is the initial slot count of each segment, memoryChunkSize and hasher are not used
+ */
+@Getter
+public class OpenAddressingHashTable<V> implements HashTable<V> {
+    private final HashTableOptions<V> options;
+    private final int segmentCount;
+    private final List<OpenAddressingSegment<V>> segments;
+    private final int segmentBitCount;
+    private final int segmentBitShift;
+    private final long segmentBitMask;
+
+    public OpenAddressingHashTable(HashTableOptions<V> options) {
+        this.options = options;
+        segmentCount = options.getSegmentCount();
+        if (!NumberUtils.isPowerOf2(segmentCount)) {
+            throw new IllegalStateException("segment count must be power of 2");
+        }
+        segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(new OpenAddressingSegment<>(
+                    options.getMaxKeySize(),
+                    options.getFixedValueSize(),
+                    options.getValueSerializer(),
+                    options.getEntryTableSizePerSegment()
+            ));
+        }
+        segmentBitCount = NumberUtils.bitCount(segmentCount);
+        segmentBitShift = OSConstants.WORD_SIZE_AS_BIT - segmentBitCount;
+        segmentBitMask = ((long) segmentCount - 1) << segmentBitShift;
+    }
+
+    private OpenAddressingSegment<V> getSegment(long hash) {
+        int index = (int)((hash & segmentBitMask) >>> segmentBitShift);
+        return segments.get(index);
+    }
+
+    @Override
+    public V get(KeyBuffer keyBuffer) {
+        return get(keyBuffer.buffer(), keyBuffer.hash(), null);
+    }
+
+    @Override
+    public void put(KeyBuffer keyBuffer, V value) {
+        put(keyBuffer.buffer(), keyBuffer.hash(), value);
+    }
+
+    @Override
+    public V putIfAbsent(KeyBuffer keyBuffer, V value) {
+        return putIfAbsent(keyBuffer.buffer(), keyBuffer.hash(), value);
+    }
+
+    @Override
+    public boolean replace(KeyBuffer keyBuffer, V oldValue, V newValue) {
+        return replace(keyBuffer.buffer(), keyBuffer.hash(), oldValue, newValue);
+    }
+
+    @Override
+    public void remove(KeyBuffer keyBuffer) {
+        remove(keyBuffer.buffer(), keyBuffer.hash());
+    }
+
+    // keys are validated by the caller (db rejects them before anything is written)
+    private void checkKeySize(byte[] key) {
+        assert key.length <= options.getMaxKeySize() : "key size must not greater than " + options.getMaxKeySize();
+    }
+
+    @Override
+    public V get(byte[] key, long hash, V reuse) {
+        return getSegment(hash).get(hash, key, reuse);
+    }
+
+    @Override
+    public void put(byte[] key, long hash, V value) {
+        checkKeySize(key);
+        getSegment(hash).put(hash, key, value);
+    }
+
+    @Override
+    public V putIfAbsent(byte[] key, long hash, V value) {
+        checkKeySize(key);
+        return getSegment(hash).putIfAbsent(hash, key, value);
+    }
+
+    @Override
+    public boolean replace(byte[] key, long hash, V oldValue, V newValue) {
+        return getSegment(hash).replace(hash, key, oldValue, newValue);
+    }
+
+    @Override
+    public void remove(byte[] key, long hash) {
+        getSegment(hash).delete(hash, key);
+    }
+
+    @Override
+    public void close() {
+        for (OpenAddressingSegment<V> segment : segments) {
+            segment.close();
+        }
+        Collections.fill(segments, null);
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.tuannh982.phantom.offheap.hashtable.openaddressing;
+
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.offheap.hashtable.ValueSerializer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+linear probing over a slot table, deleted slots are filled by shifting back the following entries (no tombstones).
+same locking as chained segment: writes are exclusive, reads are optimistic with read lock fallback.
+slot table is doubled when load factor exceeds MAX_LOAD_FACTOR (rehashed at once, by stored hashes),
+retired tables are only freed on close, so optimistic readers never touch freed memory
+ */
+public class OpenAddressingSegment<V> implements Closeable {
+    private static final int MAX_OPTIMISTIC_READ_ATTEMPTS = 4;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int NOT_FOUND = -1;
+
+    // primary
+    private final int maxKeySize;
+    private final int fixedValueSize;
+    private final ValueSerializer<V> valueSerializer;
+    // lock
+    private final StampedLock lock;
+    // slot tables
+    private volatile SlotTable slotTable;
+    private final List<SlotTable> retiredSlotTables;
+    private int size;
+
+    public OpenAddressingSegment(int maxKeySize, int fixedValueSize, ValueSerializer<V> valueSerializer, int initialCapacity) {
+        this.maxKeySize = maxKeySize;
+        this.fixedValueSize = fixedValueSize;
+        this.valueSerializer = valueSerializer;
+        this.lock = new StampedLock();
+        this.slotTable = SlotTable.allocate(initialCapacity, maxKeySize, fixedValueSize);
+        this.retiredSlotTables = new ArrayList<>();
+        this.size = 0;
+    }
+
+    public V get(long hash, byte[] key, V reuse) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                continue; // write in progress
+            }
+            try {
+                V value = find(hash, key, reuse);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // inconsistent read (e.g. garbage value was deserialized), retry
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return find(hash, key, reuse);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private V find(long hash, byte[] key, V reuse) {
+        if (key.length > maxKeySize) { // could not be put
+            return null;
+        }
+        SlotTable table = slotTable;
+        int index = indexOf(table, hash, key);
+        if (index == NOT_FOUND) {
+            return null;
+        }
+        return valueSerializer.deserialize(table.valueAddress(index), reuse);
+    }
+
+    // probes are bounded by capacity, so a (torn) optimistic read never loops forever
+    private static int indexOf(SlotTable table, long hash, byte[] key) {
+        int index = table.homeIndex(hash);
+        for (int probe = 0; probe < table.getCapacity(); probe++) {
+            if (table.isEmpty(index)) {
+                return NOT_FOUND;
+            }
+            if (table.compareKey(index, hash, key)) {
+                return index;
+            }
+            index = table.nextIndex(index);
+        }
+        return NOT_FOUND;
+    }
+
+    public void put(long hash, byte[] key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(slotTable, hash, key);
+            if (index != NOT_FOUND) {
+                valueSerializer.serialize(value, slotTable.valueAddress(index));
+                return;
+            }
+            insert(hash, key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public V putIfAbsent(long hash, byte[] key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(slotTable, hash, key);
+            if (index != NOT_FOUND) {
+                return valueSerializer.deserialize(slotTable.valueAddress(index), null);
+            }
+            insert(hash, key, value);
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void insert(long hash, byte[] key, V value) {
+        SlotTable table = slotTable;
+        if (size == table.getCapacity()) {
+            throw new OutOfMemoryError();
+        }
+        int index = table.homeIndex(hash);
+        while (!table.isEmpty(index)) {
+            index = table.nextIndex(index);
+        }
+        valueSerializer.serialize(value, table.valueAddress(index));
+        table.writeKey(index, hash, key);
+        size++;
+        if (size > MAX_LOAD_FACTOR * table.getCapacity() && table.getCapacity() < NumberUtils.INTEGER_MAX_POWER_OF_TWO) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        SlotTable oldTable = slotTable;
+        SlotTable newTable = SlotTable.allocate(oldTable.getCapacity() << 1, maxKeySize, fixedValueSize);
+        for (int oldIndex = 0; oldIndex < oldTable.getCapacity(); oldIndex++) {
+            if (oldTable.isEmpty(oldIndex)) {
+                continue;
+            }
+            int index = newTable.homeIndex(oldTable.getHash(oldIndex));
+            while (!newTable.isEmpty(index)) {
+                index = newTable.nextIndex(index);
+            }
+            newTable.copySlot(oldTable, oldIndex, index);
+        }
+        slotTable = newTable;
+        retiredSlotTables.add(oldTable);
+    }
+
+    public boolean replace(long hash, byte[] key, V oldValue, V newValue) {
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(slotTable, hash, key);
+            if (index == NOT_FOUND || !valueSerializer.isEquals(oldValue, slotTable.valueAddress(index))) {
+                return false;
+            }
+            valueSerializer.serialize(newValue, slotTable.valueAddress(index));
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void delete(long hash, byte[] key) {
+        long stamp = lock.writeLock();
+        try {
+            SlotTable table = slotTable;
+            int hole = indexOf(table, hash, key);
+            if (hole == NOT_FOUND) {
+                return;
+            }
+            // shift back following entries of the probe sequence, an entry could fill the hole if its home is not in (hole, index]
+            int index = table.nextIndex(hole);
+            while (!table.isEmpty(index)) {
+                int home = table.homeIndex(table.getHash(index));
+                if (((index - home) & table.getMask()) >= ((index - hole) & table.getMask())) {
+                    table.copySlot(table, index, hole);
+                    hole = index;
+                }
+                index = table.nextIndex(index);
+            }
+            table.clear(hole);
+            size--;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        slotTable.close();
+        for (SlotTable retired : retiredSlotTables) {
+            retired.close();
+        }
+        retiredSlotTables.clear();
+    }
+}
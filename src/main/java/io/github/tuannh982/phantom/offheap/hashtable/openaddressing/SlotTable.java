@@ -0,0 +1,101 @@
+package io.github.tuannh982.phantom.offheap.hashtable.openaddressing;
+
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
+import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
+import lombok.Getter;
+
+import java.io.Closeable;
+
+/*
+fixed size slots, key and value are stored inline, so a probe never leaves the slot array.
+slot = hash(8), key_length(1), key(max_key_size), value(fixed_value_size), key_length = -1 for empty slot.
+full hash is kept as fingerprint (key is only compared on hash match) and to rehash without reading the key
+ */
+@Getter
+public class SlotTable implements Closeable {
+    private static final byte EMPTY = -1;
+    public static final int HASH_OFFSET = 0;
+    public static final int KEY_LENGTH_OFFSET = HASH_OFFSET + 8;
+    public static final int DATA_OFFSET = KEY_LENGTH_OFFSET + 1;
+
+    private final int capacity;
+    private final int mask;
+    private final int maxKeySize;
+    private final int slotSize;
+    private final long address;
+
+    private SlotTable(int capacity, int maxKeySize, int slotSize, long address) {
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxKeySize = maxKeySize;
+        this.slotSize = slotSize;
+        this.address = address;
+    }
+
+    public static SlotTable allocate(int capacity, int maxKeySize, int fixedValueSize) {
+        if (!NumberUtils.isPowerOf2(capacity)) {
+            throw new IllegalStateException("slot table capacity must be power of 2");
+        }
+        int slotSize = DATA_OFFSET + maxKeySize + fixedValueSize;
+        long address = UnsafeWrapper.malloc((long) capacity * slotSize);
+        SlotTable table = new SlotTable(capacity, maxKeySize, slotSize, address);
+        for (int index = 0; index < capacity; index++) {
+            table.clear(index);
+        }
+        return table;
+    }
+
+    public int homeIndex(long hash) {
+        return (int) (hash & mask);
+    }
+
+    public int nextIndex(int index) {
+        return (index + 1) & mask;
+    }
+
+    private long slotAddress(int index) {
+        return address + (long) index * slotSize;
+    }
+
+    public boolean isEmpty(int index) {
+        return UnsafeWrapper.getByte(slotAddress(index), KEY_LENGTH_OFFSET) == EMPTY;
+    }
+
+    public long getHash(int index) {
+        return UnsafeWrapper.getLong(slotAddress(index), HASH_OFFSET);
+    }
+
+    // compare fingerprint first, key is only compared on match
+    public boolean compareKey(int index, long hash, byte[] key) {
+        long slot = slotAddress(index);
+        return UnsafeWrapper.getLong(slot, HASH_OFFSET) == hash &&
+                UnsafeWrapper.getByte(slot, KEY_LENGTH_OFFSET) == key.length &&
+                UnsafeWrapper.isEquals(slot, DATA_OFFSET, key);
+    }
+
+    public long valueAddress(int index) {
+        return slotAddress(index) + DATA_OFFSET + maxKeySize;
+    }
+
+    // value is written separately (at valueAddress)
+    public void writeKey(int index, long hash, byte[] key) {
+        long slot = slotAddress(index);
+        UnsafeWrapper.putLong(slot, HASH_OFFSET, hash);
+        UnsafeWrapper.memcpy(key, 0, slot, DATA_OFFSET, key.length);
+        UnsafeWrapper.putByte(slot, KEY_LENGTH_OFFSET, (byte) key.length);
+    }
+
+    // copy whole slot from another table (or another index of this table)
+    public void copySlot(SlotTable from, int fromIndex, int toIndex) {
+        UnsafeWrapper.memcpy(from.slotAddress(fromIndex), 0, slotAddress(toIndex), 0, slotSize);
+    }
+
+    public void clear(int index) {
+        UnsafeWrapper.putByte(slotAddress(index), KEY_LENGTH_OFFSET, EMPTY);
+    }
+
+    @Override
+    public void close() {
+        UnsafeWrapper.free(address);
+    }
+}
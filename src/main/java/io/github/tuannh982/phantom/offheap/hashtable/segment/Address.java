@@ -1,37 +1,42 @@
 package io.github.tuannh982.phantom.offheap.hashtable.segment;
 
 import io.github.tuannh982.phantom.commons.unsafe.UnsafeWrapper;
-import lombok.AllArgsConstructor;
-import lombok.EqualsAndHashCode;
-import lombok.Getter;
-import lombok.ToString;
-
-@AllArgsConstructor
-@Getter
-@EqualsAndHashCode
-@ToString
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+// address packed in a long: chunkIndex(16 bits, sign extended), chunkOffset(32 bits)
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class Address {
     public static final int SERIALIZED_SIZE = 2 + 4; // chunkIndex(2), chunkOffset(4)
     public static final int CHUNK_INDEX_OFFSET = 0;
     public static final int CHUNK_OFFSET_OFFSET = 2;
 
-    public static final Address NULL_VALUE = new Address((short) -1, -1); // 0xffff, 0xffffffff
+    public static final long NULL_VALUE = pack((short) -1, -1); // 0xffff, 0xffffffff
+
+    public static long pack(short chunkIndex, int chunkOffset) {
+        return ((long) chunkIndex << 32) | (chunkOffset & 0xffffffffL);
+    }
+
+    public static short chunkIndex(long address) {
+        return (short) (address >> 32);
+    }
 
-    private final short chunkIndex;
-    private final int chunkOffset;
+    public static int chunkOffset(long address) {
+        return (int) address;
+    }
 
-    public void serialize(long address) {
-        UnsafeWrapper.putShort(address, CHUNK_INDEX_OFFSET, chunkIndex);
-        UnsafeWrapper.putInt(address, CHUNK_OFFSET_OFFSET, chunkOffset);
+    public static void serialize(long address, long memoryAddress) {
+        UnsafeWrapper.putShort(memoryAddress, CHUNK_INDEX_OFFSET, chunkIndex(address));
+        UnsafeWrapper.putInt(memoryAddress, CHUNK_OFFSET_OFFSET, chunkOffset(address));
     }
 
-    public static Address deserialize(long address) {
-        short chunkIndex = UnsafeWrapper.getShort(address, CHUNK_INDEX_OFFSET);
-        int chunkOffset = UnsafeWrapper.getInt(address, CHUNK_OFFSET_OFFSET);
-        return new Address(chunkIndex, chunkOffset);
+    public static long deserialize(long memoryAddress) {
+        short chunkIndex = UnsafeWrapper.getShort(memoryAddress, CHUNK_INDEX_OFFSET);
+        int chunkOffset = UnsafeWrapper.getInt(memoryAddress, CHUNK_OFFSET_OFFSET);
+        return pack(chunkIndex, chunkOffset);
     }
 
-    public boolean isNullAddress() {
-        return chunkIndex < 0 || chunkOffset < 0;
+    public static boolean isNullAddress(long address) {
+        return chunkIndex(address) < 0 || chunkOffset(address) < 0;
     }
 }
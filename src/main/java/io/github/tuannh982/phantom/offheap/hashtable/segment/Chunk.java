@@ -9,8 +9,10 @@ import java.nio.ByteBuffer;
 
 @Getter
 public class Chunk implements Closeable {
-    // serialized_data = address(x), key_length(1), key(max_key_size), value(fixed_value_size)
-    public static final int KEY_LENGTH_OFFSET = Address.SERIALIZED_SIZE;
+    // serialized_data = address(x), fingerprint(4), key_length(1), key(max_key_size), value(fixed_value_size)
+    // max_key_size is the key capacity of the chunk (size class), not the max key size of the table
+    public static final int FINGERPRINT_OFFSET = Address.SERIALIZED_SIZE;
+    public static final int KEY_LENGTH_OFFSET = FINGERPRINT_OFFSET + 4;
     public static final int DATA_OFFSET = KEY_LENGTH_OFFSET + 1;
 
     // primary
@@ -28,7 +30,11 @@ public class Chunk implements Closeable {
         this.memoryChunkSize = memoryChunkSize;
         this.address = address;
         this.writeOffset = 0;
-        this.entrySize = DATA_OFFSET + maxKeySize + fixedValueSize;
+        this.entrySize = entrySize(maxKeySize, fixedValueSize);
+    }
+
+    public static int entrySize(int maxKeySize, int fixedValueSize) {
+        return DATA_OFFSET + maxKeySize + fixedValueSize;
     }
 
     public static Chunk allocate(int maxKeySize, int fixedValueSize, int memoryChunkSize) {
@@ -36,12 +42,12 @@ public class Chunk implements Closeable {
         return new Chunk(maxKeySize, fixedValueSize, memoryChunkSize, address);
     }
 
-    public Address getNextAddress(int offset) {
+    public long getNextAddress(int offset) {
         return Address.deserialize(address + offset);
     }
 
-    public void setNextAddress(int offset, Address nextAddress) {
-        nextAddress.serialize(address + offset);
+    public void setNextAddress(int offset, long nextAddress) {
+        Address.serialize(nextAddress, address + offset);
     }
 
     public ByteBuffer readKey(int offset) {
@@ -49,14 +55,33 @@ public class Chunk implements Closeable {
         return UnsafeWrapper.directBuffer(address, (long)offset + DATA_OFFSET, keyLength, true);
     }
 
+    public byte[] getKey(int offset) {
+        byte[] key = new byte[UnsafeWrapper.getByte(address, (long)offset + KEY_LENGTH_OFFSET)];
+        UnsafeWrapper.memcpy(address, (long)offset + DATA_OFFSET, key, 0, key.length);
+        return key;
+    }
+
     public void setKey(int offset, byte[] key) {
         UnsafeWrapper.putByte(address, (long)offset + KEY_LENGTH_OFFSET, (byte) key.length);
         UnsafeWrapper.memcpy(key, 0, address, (long)offset + DATA_OFFSET, key.length);
     }
 
-    public boolean compareKey(int offset, byte[] key) {
+    // high bits of hash, low bits are (mostly) the same for all entries of a chain
+    public static int fingerprint(long hash) {
+        return (int) (hash >>> 32);
+    }
+
+    // key is only compared if fingerprint matches
+    public boolean compareKey(int offset, int fingerprint, byte[] key) {
+        if (UnsafeWrapper.getInt(address, (long)offset + FINGERPRINT_OFFSET) != fingerprint) {
+            return false;
+        }
         int keyLength = UnsafeWrapper.getByte(address, (long)offset + KEY_LENGTH_OFFSET);
-        return keyLength == key.length && UnsafeWrapper.isEquals(address, (long)offset + DATA_OFFSET, key);
+        return keyLength == key.length && key.length <= maxKeySize && UnsafeWrapper.isEquals(address, (long)offset + DATA_OFFSET, key);
+    }
+
+    public long valueAddress(int offset) {
+        return address + offset + DATA_OFFSET + maxKeySize;
     }
 
     public ByteBuffer readValue(int offset) {
@@ -74,15 +99,19 @@ public class Chunk implements Closeable {
         return fixedValueSize == value.length && UnsafeWrapper.isEquals(address, valueOffset, value);
     }
 
-    public void writeEntry(int offset, byte[] key, byte[] value, Address nextAddress) {
+    // value is written separately (at valueAddress)
+    public void writeEntry(int offset, byte[] key, int fingerprint, long nextAddress) {
         setNextAddress(offset, nextAddress);
+        UnsafeWrapper.putInt(address, (long)offset + FINGERPRINT_OFFSET, fingerprint);
         setKey(offset, key);
-        setValue(offset, value);
     }
 
-    public void writeEntry(byte[] key, byte[] value, Address nextAddress) {
-        writeEntry(writeOffset, key, value, nextAddress);
+    // return offset of the entry
+    public int writeEntry(byte[] key, int fingerprint, long nextAddress) {
+        int offset = writeOffset;
+        writeEntry(offset, key, fingerprint, nextAddress);
         writeOffset += entrySize;
+        return offset;
     }
 
     public int remaining() {
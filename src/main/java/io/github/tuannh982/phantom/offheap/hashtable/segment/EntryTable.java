@@ -38,14 +38,22 @@ public class EntryTable implements Closeable {
         return (long) index * Address.SERIALIZED_SIZE;
     }
 
-    public Address getEntry(long hash) {
+    public long getEntry(long hash) {
         long entryAddress = address + entryOffset(entryIndex(hash));
         return Address.deserialize(entryAddress);
     }
 
-    public void setEntry(long hash, Address entry) {
+    public void setEntry(long hash, long entry) {
         long entryAddress = address + entryOffset(entryIndex(hash));
-        entry.serialize(entryAddress);
+        Address.serialize(entry, entryAddress);
+    }
+
+    public long getEntryAt(int index) {
+        return Address.deserialize(address + entryOffset(index));
+    }
+
+    public void setEntryAt(int index, long entry) {
+        Address.serialize(entry, address + entryOffset(index));
     }
 
     @Override
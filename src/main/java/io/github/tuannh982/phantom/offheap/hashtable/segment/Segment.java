@@ -1,181 +1,334 @@
 package io.github.tuannh982.phantom.offheap.hashtable.segment;
 
-import io.github.tuannh982.phantom.commons.concurrent.RLock;
-import io.github.tuannh982.phantom.offheap.hashtable.KeyBuffer;
+import io.github.tuannh982.phantom.commons.number.NumberUtils;
 import io.github.tuannh982.phantom.offheap.hashtable.ValueSerializer;
+import io.github.tuannh982.phantom.offheap.hashtable.hash.Hasher;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
 
+/*
+writes are exclusive. reads are optimistic: they never write to shared memory, every address is bound checked
+before it's dereferenced and the result is discarded if a write happened in the meantime.
+after a few failed attempts, read falls back to read lock.
+entry table is doubled when load factor exceeds MAX_LOAD_FACTOR, buckets of old table are migrated incrementally
+(a few per write), a bucket is looked up in the new table if it was migrated, otherwise in the old table.
+retired tables are only freed on close, so optimistic readers never touch freed memory.
+entries are allocated from size class slabs: each chunk only holds entries of one size class (key capacity rounded up
+to multiple of SIZE_CLASS_GRANULARITY, not max key size), each size class has its own current chunk and free list.
+chunks are sized by demand: first chunk of a size class holds INITIAL_CHUNK_ENTRIES entries, next chunks are doubled
+up to memoryChunkSize, so an unused (or rarely used) size class costs nothing (or a few entries) instead of a full chunk
+ */
 @SuppressWarnings("java:S1068")
 public class Segment<V> implements Closeable {
+    private static final int MAX_OPTIMISTIC_READ_ATTEMPTS = 4;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int MIGRATED_BUCKETS_PER_WRITE = 4;
+    private static final int SIZE_CLASS_GRANULARITY = 8;
+    private static final int INITIAL_CHUNK_ENTRIES = 16;
+
     // primary
     private final int maxKeySize;
     private final int fixedValueSize;
     private final int memoryChunkSize;
     private final ValueSerializer<V> valueSerializer;
     private final int entryTableSizePerSegment;
-    private final int entrySize;
+    private final Hasher hasher; // null = entry table never grows
     // lock
-    private final RLock lock;
+    private final StampedLock lock;
+    // entry tables
+    private volatile EntryTable entryTable;
+    private volatile EntryTable migratingEntryTable; // old table being migrated, null if no migration
+    private volatile int migratedBuckets; // buckets [0, migratedBuckets) of old table were migrated
+    private final List<EntryTable> retiredEntryTables;
+    private int size;
     //
-    private EntryTable entryTable;
     private final List<Chunk> chunks;
-    private int currentChunkIndex;
-    // free list
-    private final FreeList freeList;
+    private volatile Chunk[] readableChunks; // snapshot of chunks for optimistic reads, replaced on chunk rollover
+    private final int[] currentChunkIndexes; // current chunk of each size class, -1 if not allocated yet
+    // free lists (of each size class)
+    private final List<FreeList> freeLists;
 
-    public Segment(int maxKeySize, int fixedValueSize, int memoryChunkSize, ValueSerializer<V> valueSerializer, int entryTableSizePerSegment) {
+    public Segment(int maxKeySize, int fixedValueSize, int memoryChunkSize, ValueSerializer<V> valueSerializer, int entryTableSizePerSegment, Hasher hasher) {
         this.maxKeySize = maxKeySize;
         this.fixedValueSize = fixedValueSize;
         this.memoryChunkSize = memoryChunkSize;
         this.valueSerializer = valueSerializer;
         this.entryTableSizePerSegment = entryTableSizePerSegment;
-        this.entrySize = Address.SERIALIZED_SIZE + 1 + maxKeySize + fixedValueSize; // address(6), key_size(1), max_key_size, fixed_value_size
-        this.lock = new RLock();
+        this.hasher = hasher;
+        this.lock = new StampedLock();
         //
         this.entryTable = EntryTable.allocate(entryTableSizePerSegment);
+        this.migratingEntryTable = null;
+        this.migratedBuckets = 0;
+        this.retiredEntryTables = new ArrayList<>();
+        this.size = 0;
         this.chunks = new ArrayList<>();
-        this.currentChunkIndex = -1;
-        this.freeList = new FreeList();
+        this.readableChunks = new Chunk[0];
+        int sizeClassCount = sizeClass(maxKeySize) + 1;
+        this.currentChunkIndexes = new int[sizeClassCount];
+        Arrays.fill(currentChunkIndexes, -1);
+        this.freeLists = new ArrayList<>(sizeClassCount);
+        for (int i = 0; i < sizeClassCount; i++) {
+            freeLists.add(new FreeList());
+        }
     }
 
-    public V get(KeyBuffer keyBuffer) {
-        boolean rlock = lock.lock();
-        try {
-            Address address = entryTable.getEntry(keyBuffer.hash());
-            while (!address.isNullAddress()) {
-                Chunk chunk = chunks.get(address.getChunkIndex());
-                if (chunk.compareKey(address.getChunkOffset(), keyBuffer.buffer())) {
-                    return valueSerializer.deserialize(chunk.readValue(address.getChunkOffset()));
+    private static int sizeClass(int keyLength) {
+        return (keyLength + SIZE_CLASS_GRANULARITY - 1) / SIZE_CLASS_GRANULARITY;
+    }
+
+    private int keyCapacity(int sizeClass) {
+        return Math.min(sizeClass * SIZE_CLASS_GRANULARITY, maxKeySize);
+    }
+
+    public V get(long hash, byte[] key, V reuse) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                continue; // write in progress
+            }
+            try {
+                V value = find(hash, key, reuse, stamp);
+                if (lock.validate(stamp)) {
+                    return value;
                 }
-                address = chunk.getNextAddress(address.getChunkOffset());
+            } catch (RuntimeException e) {
+                // inconsistent read (e.g. garbage value was deserialized), retry
             }
-            return null;
+        }
+        long stamp = lock.readLock();
+        try {
+            return find(hash, key, reuse, 0);
         } finally {
-            lock.release(rlock);
+            lock.unlockRead(stamp);
         }
     }
 
-    public void put(KeyBuffer keyBuffer, V value) {
-        byte[] serializedValue = valueSerializer.serialize(value).array();
-        boolean rlock = lock.lock();
+    // optimistic if stamp != 0, the returned value is only valid if the stamp is still valid
+    private V find(long hash, byte[] key, V reuse, long stamp) {
+        if (key.length > maxKeySize) { // could not be put
+            return null;
+        }
+        int fingerprint = Chunk.fingerprint(hash);
+        Chunk[] currentChunks = readableChunks;
+        long address = tableOf(hash).getEntry(hash);
+        while (!Address.isNullAddress(address)) {
+            if (Address.chunkIndex(address) >= currentChunks.length) {
+                return null; // torn address, only possible on optimistic read
+            }
+            Chunk chunk = currentChunks[Address.chunkIndex(address)];
+            if (Address.chunkOffset(address) > chunk.getMemoryChunkSize() - chunk.getEntrySize()) {
+                return null; // torn address
+            }
+            if (chunk.compareKey(Address.chunkOffset(address), fingerprint, key)) {
+                return valueSerializer.deserialize(chunk.valueAddress(Address.chunkOffset(address)), reuse);
+            }
+            if (stamp != 0 && !lock.validate(stamp)) {
+                return null; // chain could be modified (even cyclic), stop here
+            }
+            address = chunk.getNextAddress(Address.chunkOffset(address));
+        }
+        return null;
+    }
+
+    public void put(long hash, byte[] key, V value) {
+        long stamp = lock.writeLock();
         try {
-            Address address = entryTable.getEntry(keyBuffer.hash());
-            Address entryTableEntry = address;
-            while (!address.isNullAddress()) {
-                Chunk chunk = chunks.get(address.getChunkIndex());
-                if (chunk.compareKey(address.getChunkOffset(), keyBuffer.buffer())) {
-                    chunk.setValue(address.getChunkOffset(), serializedValue);
+            migrate(MIGRATED_BUCKETS_PER_WRITE);
+            int fingerprint = Chunk.fingerprint(hash);
+            long address = tableOf(hash).getEntry(hash);
+            long entryTableEntry = address;
+            while (!Address.isNullAddress(address)) {
+                Chunk chunk = chunks.get(Address.chunkIndex(address));
+                if (chunk.compareKey(Address.chunkOffset(address), fingerprint, key)) {
+                    valueSerializer.serialize(value, chunk.valueAddress(Address.chunkOffset(address)));
                     return;
                 }
-                address = chunk.getNextAddress(address.getChunkOffset());
+                address = chunk.getNextAddress(Address.chunkOffset(address));
             }
-            write(keyBuffer.hash(), keyBuffer.buffer(), serializedValue, entryTableEntry);
+            write(hash, key, value, entryTableEntry);
         } finally {
-            lock.release(rlock);
+            lock.unlockWrite(stamp);
         }
     }
 
-    public V putIfAbsent(KeyBuffer keyBuffer, V value) {
-        byte[] serializedValue = valueSerializer.serialize(value).array();
-        boolean rlock = lock.lock();
+    public V putIfAbsent(long hash, byte[] key, V value) {
+        long stamp = lock.writeLock();
         try {
-            Address address = entryTable.getEntry(keyBuffer.hash());
-            Address entryTableEntry = address;
-            while (!address.isNullAddress()) {
-                Chunk chunk = chunks.get(address.getChunkIndex());
-                if (chunk.compareKey(address.getChunkOffset(), keyBuffer.buffer())) {
-                    return valueSerializer.deserialize(chunk.readValue(address.getChunkOffset()));
+            migrate(MIGRATED_BUCKETS_PER_WRITE);
+            int fingerprint = Chunk.fingerprint(hash);
+            long address = tableOf(hash).getEntry(hash);
+            long entryTableEntry = address;
+            while (!Address.isNullAddress(address)) {
+                Chunk chunk = chunks.get(Address.chunkIndex(address));
+                if (chunk.compareKey(Address.chunkOffset(address), fingerprint, key)) {
+                    return valueSerializer.deserialize(chunk.valueAddress(Address.chunkOffset(address)), null);
                 }
-                address = chunk.getNextAddress(address.getChunkOffset());
+                address = chunk.getNextAddress(Address.chunkOffset(address));
             }
-            write(keyBuffer.hash(), keyBuffer.buffer(), serializedValue, entryTableEntry);
+            write(hash, key, value, entryTableEntry);
             return null;
         } finally {
-            lock.release(rlock);
+            lock.unlockWrite(stamp);
         }
     }
 
-    private void write(long hash, byte[] key, byte[] value, Address entryTableEntry) {
-        Address newHeadAddress = null;
+    private void write(long hash, byte[] key, V value, long entryTableEntry) {
+        int sizeClass = sizeClass(key.length);
+        FreeList freeList = freeLists.get(sizeClass);
+        long newHeadAddress;
         if (freeList.size() > 0) {
-            Address freeAddress = freeList.poll();
-            chunks.get(freeAddress.getChunkIndex()).writeEntry(key, value, entryTableEntry);
+            long freeAddress = freeList.poll();
+            Chunk chunk = chunks.get(Address.chunkIndex(freeAddress));
+            chunk.writeEntry(Address.chunkOffset(freeAddress), key, Chunk.fingerprint(hash), entryTableEntry);
+            valueSerializer.serialize(value, chunk.valueAddress(Address.chunkOffset(freeAddress)));
             newHeadAddress = freeAddress;
         } else {
-            if (currentChunkIndex == -1 || chunks.get(currentChunkIndex).remaining() < entrySize) {
-                // rollover new chunk
+            int currentChunkIndex = currentChunkIndexes[sizeClass];
+            if (currentChunkIndex == -1 || chunks.get(currentChunkIndex).remaining() < chunks.get(currentChunkIndex).getEntrySize()) {
+                // rollover new chunk of this size class
                 if (chunks.size() > Short.MAX_VALUE) {
                     throw new OutOfMemoryError();
                 }
-                chunks.add(Chunk.allocate(maxKeySize, fixedValueSize, memoryChunkSize));
-                currentChunkIndex++;
+                chunks.add(allocateChunk(sizeClass, currentChunkIndex == -1 ? null : chunks.get(currentChunkIndex)));
+                readableChunks = chunks.toArray(new Chunk[0]);
+                currentChunkIndex = chunks.size() - 1;
+                currentChunkIndexes[sizeClass] = currentChunkIndex;
             }
             Chunk currentChunk = chunks.get(currentChunkIndex);
-            Address newAddress = new Address((short) currentChunkIndex, currentChunk.getWriteOffset());
-            currentChunk.writeEntry(key, value, entryTableEntry);
-            newHeadAddress = newAddress;
+            int offset = currentChunk.writeEntry(key, Chunk.fingerprint(hash), entryTableEntry);
+            valueSerializer.serialize(value, currentChunk.valueAddress(offset));
+            newHeadAddress = Address.pack((short) currentChunkIndex, offset);
+        }
+        tableOf(hash).setEntry(hash, newHeadAddress);
+        size++;
+        if (hasher != null && size > MAX_LOAD_FACTOR * entryTable.getHashTableSize() && entryTable.getHashTableSize() < NumberUtils.INTEGER_MAX_POWER_OF_TWO) {
+            grow();
+        }
+    }
+
+    // double size of previous chunk of the size class (up to memoryChunkSize), chunk always holds at least one entry
+    private Chunk allocateChunk(int sizeClass, Chunk previousChunk) {
+        int keyCapacity = keyCapacity(sizeClass);
+        int entrySize = Chunk.entrySize(keyCapacity, fixedValueSize);
+        long chunkSize = previousChunk == null ? (long) entrySize * INITIAL_CHUNK_ENTRIES : 2L * previousChunk.getMemoryChunkSize();
+        chunkSize = Math.max(Math.min(chunkSize, memoryChunkSize), entrySize);
+        return Chunk.allocate(keyCapacity, fixedValueSize, (int) chunkSize);
+    }
+
+    // table holding bucket of hash
+    private EntryTable tableOf(long hash) {
+        EntryTable migrating = migratingEntryTable;
+        if (migrating != null && migrating.entryIndex(hash) >= migratedBuckets) {
+            return migrating;
+        }
+        return entryTable;
+    }
+
+    private void grow() {
+        migrate(Integer.MAX_VALUE); // finish previous migration first
+        EntryTable newTable = EntryTable.allocate(entryTable.getHashTableSize() << 1);
+        migratedBuckets = 0;
+        migratingEntryTable = entryTable;
+        entryTable = newTable;
+    }
+
+    // move up to maxBuckets buckets of old table to new table
+    private void migrate(int maxBuckets) {
+        EntryTable migrating = migratingEntryTable;
+        if (migrating == null) {
+            return;
+        }
+        int end = (int) Math.min((long) migratedBuckets + maxBuckets, migrating.getHashTableSize());
+        for (int index = migratedBuckets; index < end; index++) {
+            long address = migrating.getEntryAt(index);
+            while (!Address.isNullAddress(address)) {
+                Chunk chunk = chunks.get(Address.chunkIndex(address));
+                long nextAddress = chunk.getNextAddress(Address.chunkOffset(address));
+                long hash = hasher.hash(chunk.getKey(Address.chunkOffset(address)));
+                chunk.setNextAddress(Address.chunkOffset(address), entryTable.getEntry(hash));
+                entryTable.setEntry(hash, address);
+                address = nextAddress;
+            }
+            migrating.setEntryAt(index, Address.NULL_VALUE);
+            migratedBuckets = index + 1;
+        }
+        if (end == migrating.getHashTableSize()) {
+            retiredEntryTables.add(migrating);
+            migratingEntryTable = null;
         }
-        entryTable.setEntry(hash, newHeadAddress);
     }
 
-    public boolean replace(KeyBuffer keyBuffer, V oldValue, V newValue) {
-        byte[] serializedOldValue = valueSerializer.serialize(oldValue).array();
-        byte[] serializedNewValue = valueSerializer.serialize(newValue).array();
-        boolean rlock = lock.lock();
+    public boolean replace(long hash, byte[] key, V oldValue, V newValue) {
+        long stamp = lock.writeLock();
         try {
-            Address address = entryTable.getEntry(keyBuffer.hash());
-            while (!address.isNullAddress()) {
-                Chunk chunk = chunks.get(address.getChunkIndex());
-                if (chunk.compareKey(address.getChunkOffset(), keyBuffer.buffer())) { // found key
-                    if (chunk.compareValue(address.getChunkOffset(), serializedOldValue)) { // value match provided value
-                        chunk.setValue(address.getChunkOffset(), serializedNewValue);
+            migrate(MIGRATED_BUCKETS_PER_WRITE);
+            int fingerprint = Chunk.fingerprint(hash);
+            long address = tableOf(hash).getEntry(hash);
+            while (!Address.isNullAddress(address)) {
+                Chunk chunk = chunks.get(Address.chunkIndex(address));
+                if (chunk.compareKey(Address.chunkOffset(address), fingerprint, key)) { // found key
+                    if (valueSerializer.isEquals(oldValue, chunk.valueAddress(Address.chunkOffset(address)))) { // value match provided value
+                        valueSerializer.serialize(newValue, chunk.valueAddress(Address.chunkOffset(address)));
                         return true;
                     } else { // not match
                         return false;
                     }
                 }
-                address = chunk.getNextAddress(address.getChunkOffset());
+                address = chunk.getNextAddress(Address.chunkOffset(address));
             }
             return false;
         } finally {
-            lock.release(rlock);
+            lock.unlockWrite(stamp);
         }
     }
 
-    public void delete(KeyBuffer keyBuffer) {
-        boolean rlock = lock.lock();
+    public void delete(long hash, byte[] key) {
+        long stamp = lock.writeLock();
         try {
-            Address previousAddress = null;
-            Address address = entryTable.getEntry(keyBuffer.hash());
-            while (!address.isNullAddress()) {
-                Chunk chunk = chunks.get(address.getChunkIndex());
-                Address nextAddress = chunk.getNextAddress(address.getChunkOffset());
-                if (chunk.compareKey(address.getChunkOffset(), keyBuffer.buffer())) {
+            migrate(MIGRATED_BUCKETS_PER_WRITE);
+            int fingerprint = Chunk.fingerprint(hash);
+            long previousAddress = Address.NULL_VALUE;
+            EntryTable table = tableOf(hash);
+            long address = table.getEntry(hash);
+            while (!Address.isNullAddress(address)) {
+                Chunk chunk = chunks.get(Address.chunkIndex(address));
+                long nextAddress = chunk.getNextAddress(Address.chunkOffset(address));
+                if (chunk.compareKey(Address.chunkOffset(address), fingerprint, key)) {
                     // remove address by short circuit the link between previous address and next address
-                    if (previousAddress == null) {
+                    if (Address.isNullAddress(previousAddress)) {
                         // current address is entry table head, so just overwrite the entry table
-                        entryTable.setEntry(keyBuffer.hash(), nextAddress);
+                        table.setEntry(hash, nextAddress);
                     } else {
-                        chunks.get(previousAddress.getChunkIndex()).setNextAddress(previousAddress.getChunkOffset(), nextAddress);
-                        freeList.offer(address); // add address to free list
+                        chunks.get(Address.chunkIndex(previousAddress)).setNextAddress(Address.chunkOffset(previousAddress), nextAddress);
                     }
+                    freeLists.get(sizeClass(key.length)).offer(address); // add address to free list of its size class
+                    size--;
+                    return; // keys are unique in a chain
                 }
                 previousAddress = address;
                 address = nextAddress;
             }
         } finally {
-            lock.release(rlock);
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public void close() throws IOException {
         entryTable.close();
+        if (migratingEntryTable != null) {
+            migratingEntryTable.close();
+        }
+        for (EntryTable retired : retiredEntryTables) {
+            retired.close();
+        }
         for (Chunk chunk : chunks) {
             chunk.close();
         }
@@ -183,29 +336,29 @@ public class Segment<V> implements Closeable {
     }
 
     private class FreeList {
-        private Address freeListPtr = Address.NULL_VALUE;
+        private long freeListPtr = Address.NULL_VALUE;
         private int size = 0;
 
-        public void offer(Address address) {
-            Chunk chunk = chunks.get(address.getChunkIndex());
-            chunk.setNextAddress(address.getChunkOffset(), freeListPtr);
+        public void offer(long address) {
+            Chunk chunk = chunks.get(Address.chunkIndex(address));
+            chunk.setNextAddress(Address.chunkOffset(address), freeListPtr);
             freeListPtr = address;
             size++;
         }
 
-        public Address poll() {
-            if (freeListPtr.isNullAddress()) {
+        public long poll() {
+            if (Address.isNullAddress(freeListPtr)) {
                 return freeListPtr;
             } else {
-                Address ret = freeListPtr;
-                Chunk chunk = chunks.get(freeListPtr.getChunkIndex());
-                freeListPtr = chunk.getNextAddress(freeListPtr.getChunkOffset());
+                long ret = freeListPtr;
+                Chunk chunk = chunks.get(Address.chunkIndex(freeListPtr));
+                freeListPtr = chunk.getNextAddress(Address.chunkOffset(freeListPtr));
                 size--;
                 return ret;
             }
         }
 
-        public Address peek() {
+        public long peek() {
             return freeListPtr;
         }
 
@@ -215,6 +368,7 @@ public class Segment<V> implements Closeable {
 
         public void clear() {
             freeListPtr = Address.NULL_VALUE;
+            size = 0;
         }
     }
 }